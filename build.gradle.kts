@@ -15,13 +15,23 @@ dependencies {
     implementation("jakarta.jms:jakarta.jms-api:2.0.1")
     implementation("org.apache.activemq:activemq-broker:6.1.1")
     testImplementation(kotlin("test"))
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.1")
 
     implementation("com.rabbitmq:amqp-client:5.16.0")
     implementation("org.apache.kafka:kafka-clients:3.5.1")
 }
 
+tasks.withType<JavaCompile> {
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+}
+
+tasks.withType<JavaExec> {
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+}
+
 tasks.test {
     useJUnitPlatform()
+    jvmArgs("--add-modules", "jdk.incubator.vector")
 }
 
 kotlin {
@@ -30,4 +40,5 @@ kotlin {
 
 application {
     mainClass.set("Main")
+    applicationDefaultJvmArgs = listOf("--add-modules", "jdk.incubator.vector")
 }
\ No newline at end of file
@@ -1,9 +1,14 @@
 import aggregator.Aggregator;
 import broker.*;
+import codec.MessageCodec;
 import config.AppConfig;
+import producer.ChunkSizeController;
 import producer.ProducerSplitter;
 import serial.SerialRunner;
 import sink.ResultSink;
+import util.InputFiles;
+import util.NameAnonymizer;
+import util.SentimentLexicon;
 import worker.WorkerManager;
 
 import java.nio.file.Path;
@@ -12,6 +17,8 @@ import java.time.Instant;
 import java.util.concurrent.CountDownLatch;
 
 public class Main {
+    private static final String JMS_URL = "tcp://localhost:61616";
+
     public static void main(String[] args) throws Exception {
         AppConfig.Mode mode = AppConfig.Mode.SERIAL;
         AppConfig.BrokerType brokerType = AppConfig.BrokerType.INMEMORY;
@@ -21,7 +28,18 @@ public class Main {
         String outputPath = "out.json";
         AppConfig.ChunkBy chunkBy = AppConfig.ChunkBy.PARAGRAPHS;
         int chunkSize = 100;
+        boolean adaptiveChunkSize = false;
         String placeholder = "<NAME>";
+        String lexiconPath = null;
+        String namesPath = null;
+        AppConfig.TextMode textMode = AppConfig.TextMode.CHARS;
+        long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+        AppConfig.WaitStrategy waitStrategy = AppConfig.WaitStrategy.PARK;
+        AppConfig.CodecType codec = AppConfig.CodecType.JSON;
+        int taskPrefetch = 4;
+        AppConfig.Role role = AppConfig.Role.ALL;
+        String queueDir = Path.of(System.getProperty("java.io.tmpdir"), "text-processing-queue").toString();
+        String coordinatorAddress = "localhost:7070";
 
         for (int i = 0; i < args.length; i++) {
             String parameter = args[i];
@@ -50,61 +68,145 @@ public class Main {
                     chunkBy = AppConfig.ChunkBy.valueOf(argument.toUpperCase());
                     break;
                 case "--chunkSize":
-                    chunkSize = Integer.parseInt(argument);
+                    if (argument.equalsIgnoreCase("auto")) {
+                        adaptiveChunkSize = true;
+                    } else {
+                        chunkSize = Integer.parseInt(argument);
+                    }
                     break;
                 case "--placeholder":
                     placeholder = argument;
                     break;
+                case "--lexicon":
+                    lexiconPath = argument;
+                    break;
+                case "--names":
+                    namesPath = argument;
+                    break;
+                case "--textMode":
+                    textMode = AppConfig.TextMode.valueOf(argument.toUpperCase());
+                    break;
+                case "--memoryBudget":
+                    memoryBudget = parseBytes(argument);
+                    break;
+                case "--waitStrategy":
+                    waitStrategy = AppConfig.WaitStrategy.valueOf(argument.toUpperCase());
+                    break;
+                case "--codec":
+                    codec = AppConfig.CodecType.valueOf(argument.toUpperCase());
+                    break;
+                case "--prefetch":
+                    taskPrefetch = Integer.parseInt(argument);
+                    break;
+                case "--role":
+                    role = AppConfig.Role.valueOf(argument.toUpperCase());
+                    break;
+                case "--queueDir":
+                    queueDir = argument;
+                    break;
+                case "--coordinator":
+                    coordinatorAddress = argument;
+                    break;
             }
         }
 
-        if (brokerType == AppConfig.BrokerType.KAFKA) {
-            throw new RuntimeException("Unsupported broker");
+        if (adaptiveChunkSize) {
+            chunkSize = ChunkSizeController.seed(chunkBy);
         }
 
-        AppConfig config = new AppConfig(mode, brokerType, parallelism, topN, inputPath, outputPath, chunkBy, chunkSize, placeholder);
+        AppConfig config = new AppConfig(mode, brokerType, parallelism, topN, inputPath, outputPath, chunkBy, chunkSize, adaptiveChunkSize, placeholder, lexiconPath, namesPath, textMode, memoryBudget, waitStrategy, codec, taskPrefetch, role, queueDir, coordinatorAddress);
+        SentimentLexicon lexicon = lexiconPath == null ? SentimentLexicon.defaultLexicon() : SentimentLexicon.load(Path.of(lexiconPath));
+        NameAnonymizer names = NameAnonymizer.load(namesPath == null ? null : Path.of(namesPath), placeholder);
 
         Instant start = Instant.now();
 
         if (config.mode == AppConfig.Mode.SERIAL) {
-            SerialRunner runner = new SerialRunner(config);
-            runner.run(placeholder);
+            SerialRunner runner = new SerialRunner(config, lexicon, names);
+            runner.run();
             System.out.println("[Main] Serial finished");
         } else if (config.mode == AppConfig.Mode.PARALLEL){
+            // COORDINATOR — продюсер и агрегатор, WORKER — воркеры; ALL — всё в одном процессе
+            boolean coordinator = config.role != AppConfig.Role.WORKER;
+            boolean workers = config.role != AppConfig.Role.COORDINATOR;
+
+            if (config.role != AppConfig.Role.ALL && (config.broker == AppConfig.BrokerType.INMEMORY || config.broker == AppConfig.BrokerType.RINGBUFFER)) {
+                throw new IllegalArgumentException("Broker " + config.broker + " works only within one process");
+            }
+
             MessageBroker broker = switch (config.broker) {
-                case RABBITMQ -> new RabbitMqBrokerMultipleConsumers("localhost", 5672, "guest", "guest");
-                case KAFKA -> new KafkaBroker("localhost:9092", "group");
-                default -> new InMemoryBroker();
+                case RABBITMQ -> new RabbitMqBrokerMultipleConsumers("localhost", 5672, "guest", "guest", config.memoryBudgetBytes, MessageCodec.of(config.codec), config.taskPrefetch);
+                case KAFKA -> new KafkaBroker("localhost:9092", "group", config.memoryBudgetBytes, MessageCodec.of(config.codec), config.parallelism, config.taskPrefetch, coordinator);
+                case RINGBUFFER -> new RingBufferBroker(config.waitStrategy, config.memoryBudgetBytes);
+                case JMS -> config.role == AppConfig.Role.ALL
+                        ? new JmsBroker(null, true, config.memoryBudgetBytes, MessageCodec.of(config.codec), config.taskPrefetch)
+                        : new JmsBroker(JMS_URL, coordinator, config.memoryBudgetBytes, MessageCodec.of(config.codec), config.taskPrefetch);
+                case MAPPEDQUEUE -> new MappedQueueBroker(Path.of(config.queueDir), coordinator, config.waitStrategy, config.memoryBudgetBytes, MessageCodec.of(config.codec));
+                case NIO -> {
+                    int separator = config.coordinatorAddress.lastIndexOf(':');
+                    yield new NioBroker(config.coordinatorAddress.substring(0, separator), Integer.parseInt(config.coordinatorAddress.substring(separator + 1)),
+                            coordinator, workers, config.memoryBudgetBytes, MessageCodec.of(config.codec), config.taskPrefetch);
+                }
+                default -> new InMemoryBroker(config.memoryBudgetBytes);
             };
 
             try {
-                ProducerSplitter producer = new ProducerSplitter(broker);
+                if (!coordinator) {
+                    // воркеры отдельного процесса работают, пока процесс продюсера не закроет брокер
+                    WorkerManager workerManager = new WorkerManager(broker, config.parallelism);
+                    workerManager.startAll(names, config.topN, lexicon);
+                    broker.awaitClosed();
+
+                    workerManager.stopAll();
+                    broker.close();
+                } else {
+                    // агрегатор и воркеры запускаются до продюсера: секции обрабатываются, пока вход ещё режется,
+                    // а их число агрегатор узнаёт в конце
+                    ChunkSizeController chunkSizes = config.adaptiveChunkSize ? new ChunkSizeController(config.chunkBy, config.chunkSize, config.parallelism) : null;
+                    ProducerSplitter producer = new ProducerSplitter(broker, chunkSizes);
+
+                    CountDownLatch done = new CountDownLatch(1);
+                    Aggregator aggregator = new Aggregator(broker, config.topN);
+                    String finalOut = outputPath;
+
+                    producer.setTaskListener(aggregator::taskPublished);
+
+                    if (chunkSizes != null) {
+                        aggregator.setResultListener(chunkSizes::completed);
+                    }
 
-                int numberOfTasks = producer.splitAndPublish(Path.of(inputPath), config.chunkBy, config.chunkSize);
+                    aggregator.start(aggregatedResult -> {
+                        try {
+                            new ResultSink().write(aggregatedResult, Path.of(finalOut));
+                        } catch (Exception e) {
+                        }
 
-                CountDownLatch done = new CountDownLatch(1);
-                Aggregator aggregator = new Aggregator(broker, config.topN, numberOfTasks);
-                String finalOut = outputPath;
+                        done.countDown();
+                    });
 
-                aggregator.start(aggregatedResult -> {
-                    try {
-                        new ResultSink().write(aggregatedResult, Path.of(finalOut));
-                    } catch (Exception e) {
+                    //            WorkerThreadPool worker = new WorkerThreadPool(broker, config.parallelism);
+                    //            worker.start(config.placeholder, config.topN);
+                    WorkerManager workerManager = null;
+
+                    if (workers) {
+                        workerManager = new WorkerManager(broker, config.parallelism);
+                        workerManager.startAll(names, config.topN, lexicon);
                     }
 
-                    done.countDown();
-                });
+                    int numberOfTasks = producer.splitAndPublish(InputFiles.resolve(inputPath), config.chunkBy, config.chunkSize, config.textMode);
+                    aggregator.setExpectedNumberOfResults(numberOfTasks);
 
-                //            WorkerThreadPool worker = new WorkerThreadPool(broker, config.parallelism);
-                //            worker.start(config.placeholder, config.topN);
-                WorkerManager workerManager = new WorkerManager(broker, config.parallelism);
-                workerManager.startAll(config.placeholder, config.topN);
+                    if (chunkSizes != null) {
+                        System.out.println("[Main] Adaptive chunk size: started at " + config.chunkSize + ", finished at " + chunkSizes.size());
+                    }
 
-                done.await();
+                    done.await();
 
-                //            worker.stop();
-                workerManager.stopAll();
-                broker.close();
+                    //            worker.stop();
+                    if (workerManager != null) {
+                        workerManager.stopAll();
+                    }
+                    broker.close();
+                }
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -113,4 +215,17 @@ public class Main {
         Instant end = Instant.now();
         System.out.println("[Main] Total time ms: " + Duration.between(start, end).toMillis());
     }
+
+    // 512m, 2g, 64k или число байт
+    private static long parseBytes(String value) {
+        String lower = value.trim().toLowerCase();
+        int shift = switch (lower.charAt(lower.length() - 1)) {
+            case 'k' -> 10;
+            case 'm' -> 20;
+            case 'g' -> 30;
+            default -> 0;
+        };
+
+        return Long.parseLong(shift == 0 ? lower : lower.substring(0, lower.length() - 1)) << shift;
+    }
 }
@@ -3,13 +3,22 @@ package aggregator;
 import broker.MessageBroker;
 import model.AggregatedResult;
 import model.ResultMessage;
-
+import model.TaskMessage;
+import util.MappedFile;
+import util.SentenceIndex;
+import util.Utf8Decoder;
+import util.WordCounter;
+import util.WordTokenizer;
+
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.IntStream;
 
 
 public class Aggregator {
@@ -19,60 +28,127 @@ public class Aggregator {
     private final LongAdder sumNegative = new LongAdder();
     private final AtomicLong resultCount = new AtomicLong(0);
 
-    private final ConcurrentHashMap<String, LongAdder> globalCounts = new ConcurrentHashMap<>();
-    private final List<String> orderedAnonymizedPieces;
-    private final List<List<String>> allSortedSentencesLists;
+    // сумма присланных кандидатов — нижняя граница частоты слова
+    private final WordCounter globalCounts = new WordCounter();
+    // сумма порогов секций, приславших слово, — чтобы считать верхнюю границу
+    private final WordCounter reportedThresholds = new WordCounter();
+    // сумма вхождений неприсланных слов по корзинам хеша — ещё одна верхняя граница
+    private final long[] unreportedTotals = new long[ResultMessage.UNREPORTED_BUCKETS];
+
+    // данные секций по номеру задачи под chunkLock; пока число секций неизвестно, массивы растут
+    private final Object chunkLock = new Object();
+    private long[] topWordsThresholds;
+    private Map<String, Long>[] reportedTopWords;
+    private int[][] unreportedCounts;
+    private String[] orderedAnonymizedPieces;
+    private byte[][] orderedAnonymizedUtf8Pieces;
+    // исходный текст секции берётся у продюсера (taskPublished), а не из результата;
+    // предложения секции — смещения в нём, отсортированные по длине
+    private String[] chunkTexts;
+    private byte[][] chunkUtf8Texts; // для секций в UTF-8 вместо chunkTexts
+    private TaskMessage[] chunkRanges; // для диапазонов файла: их байты читаются в конце
+    private int[][] sentenceStarts;
+    private int[][] sentenceLengths;
     private final Set<Integer> processedTaskIds = ConcurrentHashMap.newKeySet();
 
     private final int topN;
-    private final int expectedNumberOfResults;
+    private volatile int expectedNumberOfResults;
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private volatile Consumer<AggregatedResult> onComplete;
+    private volatile ObjLongConsumer<ResultMessage> resultListener = (result, mergeNanos) -> {};
 
     public Aggregator(MessageBroker broker, int topN, int expectedNumberOfResults) {
         this.broker = broker;
         this.topN = topN;
         this.expectedNumberOfResults = expectedNumberOfResults;
 
-        this.orderedAnonymizedPieces = Collections.synchronizedList(Arrays.asList(new String[expectedNumberOfResults]));
-        this.allSortedSentencesLists = Collections.synchronizedList(Arrays.asList(new ArrayList[expectedNumberOfResults]));
+        allocate(Math.max(expectedNumberOfResults, 16));
+    }
+
+    // число секций станет известно позже, через setExpectedNumberOfResults: агрегатор и воркеры
+    // запускаются до продюсера и обрабатывают секции, пока файл ещё режется
+    public Aggregator(MessageBroker broker, int topN) {
+        this(broker, topN, -1);
+    }
+
+    public void setExpectedNumberOfResults(int expectedNumberOfResults) {
+        this.expectedNumberOfResults = expectedNumberOfResults;
+        completeIfDone();
+    }
+
+    // вызывается для каждого принятого результата вместе со временем его слияния, например для подстройки
+    // размера секций
+    public void setResultListener(ObjLongConsumer<ResultMessage> resultListener) {
+        this.resultListener = resultListener;
+    }
+
+    // продюсер сообщает текст каждой секции до её публикации: воркеры не присылают его обратно
+    public void taskPublished(TaskMessage task) {
+        synchronized (chunkLock) {
+            if (task.id >= chunkTexts.length) {
+                allocate(Math.max(task.id + 1, chunkTexts.length * 2));
+            }
+
+            chunkTexts[task.id] = task.textChunk;
+            chunkUtf8Texts[task.id] = task.utf8Chunk;
+            chunkRanges[task.id] = task.path != null ? task : null;
+        }
     }
 
     public void start(Consumer<AggregatedResult> onComplete) throws Exception {
+        this.onComplete = onComplete;
+
         broker.subscribeResults(result -> {
             if (!processedTaskIds.add(result.taskId)) {
                 System.out.println("[Aggregator] SOMETHING WENT WRONG: taskId уже был обработан: " + result.taskId);
                 return;
             }
 
+            long mergeStarted = System.nanoTime();
             merge(result);
+            resultListener.accept(result, System.nanoTime() - mergeStarted);
 
             long currentNumberOfResults = resultCount.incrementAndGet();
+            int expected = expectedNumberOfResults;
 
-            if (currentNumberOfResults > expectedNumberOfResults) {
-                System.out.println("[Aggregator] SOMETHING WENT WRONG; currentNumberOfResults = " + currentNumberOfResults + " expectedNumberOfResults = " + expectedNumberOfResults);
+            if (expected >= 0 && currentNumberOfResults > expected) {
+                System.out.println("[Aggregator] SOMETHING WENT WRONG; currentNumberOfResults = " + currentNumberOfResults + " expectedNumberOfResults = " + expected);
             }
 
-            if (currentNumberOfResults == expectedNumberOfResults) {
-                System.out.println("[Aggregator] currentNumberOfResults = " + currentNumberOfResults + " expectedNumberOfResults = " + expectedNumberOfResults);
+            completeIfDone();
+        });
+    }
 
-                AggregatedResult aggregated = new AggregatedResult();
+    // срабатывает один раз: на последнем результате или при установке числа секций, если все уже пришли
+    private void completeIfDone() {
+        int expected = expectedNumberOfResults;
 
-                aggregated.totalWordCount = totalWords.longValue();
-                aggregated.globalTopWords = getTopN(topN);
+        if (expected < 0 || resultCount.get() != expected || onComplete == null || !completed.compareAndSet(false, true)) {
+            return;
+        }
 
-                aggregated.combinedAnonymized = flattenAnonymizedText();
+        System.out.println("[Aggregator] currentNumberOfResults = " + resultCount.get() + " expectedNumberOfResults = " + expected);
 
-                long positive = sumPositive.sum();
-                long negative = sumNegative.sum();
-                aggregated.averageSentiment = (positive + negative) == 0 ? 0.0 : (positive - negative) / (double)(positive + negative);
+        AggregatedResult aggregated = new AggregatedResult();
 
-                aggregated.allSortedSentences = mergeAllSortedSentences();
+        readRanges();
 
-                try {
-                    onComplete.accept(aggregated);
-                } catch (Exception e) {
-                }
-            }
-        });
+        aggregated.totalWordCount = totalWords.longValue();
+        aggregated.globalTopWords = getTopN(topN);
+
+        aggregated.combinedAnonymized = flattenAnonymizedText();
+        aggregated.combinedAnonymizedUtf8 = flattenAnonymizedUtf8();
+
+        long positive = sumPositive.sum();
+        long negative = sumNegative.sum();
+        aggregated.averageSentiment = (positive + negative) == 0 ? 0.0 : (positive - negative) / (double)(positive + negative);
+
+        aggregated.allSortedSentences = mergeAllSortedSentences();
+
+        try {
+            onComplete.accept(aggregated);
+        } catch (Exception e) {
+        }
     }
 
     private void merge(ResultMessage result) {
@@ -80,68 +156,249 @@ public class Aggregator {
         sumPositive.add(result.positiveCount);
         sumNegative.add(result.negativeCount);
 
-        result.topWords.forEach((k,v) -> globalCounts.computeIfAbsent(k, kk -> new LongAdder()).add(v));
-
         int taskId = result.taskId;
-        orderedAnonymizedPieces.set(taskId, result.anonymizedText);
 
-        allSortedSentencesLists.set(taskId, result.sortedSentences);
+        synchronized (globalCounts) {
+            result.topWords.forEach(globalCounts::add);
+
+            if (result.topWordsThreshold > 0) {
+                result.topWords.forEach((word, count) -> reportedThresholds.add(word, result.topWordsThreshold));
+            }
+            if (result.unreportedCounts != null) {
+                for (int bucket = 0; bucket < unreportedTotals.length; bucket++) {
+                    unreportedTotals[bucket] += result.unreportedCounts[bucket];
+                }
+            }
+        }
+
+        synchronized (chunkLock) {
+            if (taskId >= chunkTexts.length) {
+                allocate(Math.max(taskId + 1, chunkTexts.length * 2));
+            }
+
+            topWordsThresholds[taskId] = result.topWordsThreshold;
+            reportedTopWords[taskId] = result.topWords;
+            unreportedCounts[taskId] = result.unreportedCounts;
+            orderedAnonymizedPieces[taskId] = result.anonymizedText;
+            orderedAnonymizedUtf8Pieces[taskId] = result.anonymizedUtf8;
+            sentenceStarts[taskId] = result.sentenceStarts;
+            sentenceLengths[taskId] = result.sentenceLengths;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void allocate(int capacity) {
+        topWordsThresholds = topWordsThresholds == null ? new long[capacity] : Arrays.copyOf(topWordsThresholds, capacity);
+        reportedTopWords = reportedTopWords == null ? new Map[capacity] : Arrays.copyOf(reportedTopWords, capacity);
+        unreportedCounts = unreportedCounts == null ? new int[capacity][] : Arrays.copyOf(unreportedCounts, capacity);
+        orderedAnonymizedPieces = orderedAnonymizedPieces == null ? new String[capacity] : Arrays.copyOf(orderedAnonymizedPieces, capacity);
+        orderedAnonymizedUtf8Pieces = orderedAnonymizedUtf8Pieces == null ? new byte[capacity][] : Arrays.copyOf(orderedAnonymizedUtf8Pieces, capacity);
+        chunkTexts = chunkTexts == null ? new String[capacity] : Arrays.copyOf(chunkTexts, capacity);
+        chunkUtf8Texts = chunkUtf8Texts == null ? new byte[capacity][] : Arrays.copyOf(chunkUtf8Texts, capacity);
+        chunkRanges = chunkRanges == null ? new TaskMessage[capacity] : Arrays.copyOf(chunkRanges, capacity);
+        sentenceStarts = sentenceStarts == null ? new int[capacity][] : Arrays.copyOf(sentenceStarts, capacity);
+        sentenceLengths = sentenceLengths == null ? new int[capacity][] : Arrays.copyOf(sentenceLengths, capacity);
     }
 
     private List<String> flattenAnonymizedText() {
         List<String> result = new ArrayList<>();
 
-        for (String piece : orderedAnonymizedPieces) {
-            if (piece != null) {
-                result.add(piece);
+        synchronized (chunkLock) {
+            for (int taskId = 0; taskId < expectedNumberOfResults; taskId++) {
+                if (orderedAnonymizedPieces[taskId] != null) {
+                    result.add(orderedAnonymizedPieces[taskId]);
+                }
             }
         }
 
         return result;
     }
 
-    private List<String> mergeAllSortedSentences() {
-        return kWayMerge(allSortedSentencesLists);
+    // null, если секции пришли строками
+    private List<byte[]> flattenAnonymizedUtf8() {
+        List<byte[]> result = new ArrayList<>();
+
+        synchronized (chunkLock) {
+            for (int taskId = 0; taskId < expectedNumberOfResults; taskId++) {
+                if (orderedAnonymizedUtf8Pieces[taskId] != null) {
+                    result.add(orderedAnonymizedUtf8Pieces[taskId]);
+                }
+            }
+        }
+
+        return result.isEmpty() ? null : result;
     }
 
-    private List<String> kWayMerge(List<List<String>> lists) {
-        List<String> result = new ArrayList<>();
-        PriorityQueue<QueueNode> pq = new PriorityQueue<>(
-                Comparator.comparingInt((QueueNode node) -> node.sentence.length())
-        );
+    // байты диапазонов файла — из того же отображения, что у продюсера
+    private void readRanges() {
+        synchronized (chunkLock) {
+            IntStream.range(0, expectedNumberOfResults).parallel().forEach(taskId -> {
+                TaskMessage range = chunkRanges[taskId];
+
+                if (range != null) {
+                    chunkUtf8Texts[taskId] = MappedFile.open(Path.of(range.path)).read(range.offset, range.length);
+                }
+            });
+        }
+    }
 
-        for (int i = 0; i < lists.size(); i++) {
-            List<String> list = lists.get(i);
+    private SentenceIndex mergeAllSortedSentences() {
+        synchronized (chunkLock) {
+            return SentenceIndex.mergeByLength(chunkTexts, chunkUtf8Texts, sentenceStarts, sentenceLengths);
+        }
+    }
+
+    // Точный top-N по кандидатам секций (в духе TPUT). Нижняя граница частоты слова — сумма присланных
+    // счётчиков; секции, которые слово не прислали, добавляют к ней не больше суммы своих порогов и не больше
+    // суммы неприсланных слов в его корзине хеша. В топ может войти только слово, чья верхняя граница
+    // не меньше n-й нижней; такие слова досчитываются по тексту только тех секций, где они могли остаться.
+    private Map<String,Long> getTopN(int n) {
+        synchronized (globalCounts) {
+            Map<String, Long> byLowerBound = globalCounts.top(n);
+            long lowest = byLowerBound.size() < n ? 0 : byLowerBound.values().stream().mapToLong(Long::longValue).min().orElse(0);
+            long totalThreshold;
+
+            synchronized (chunkLock) {
+                totalThreshold = Arrays.stream(topWordsThresholds).sum();
+            }
+
+            if (totalThreshold == 0) {
+                return byLowerBound;
+            }
+
+            WordCounter candidates = new WordCounter();
+            List<String> candidateWords = new ArrayList<>();
+
+            globalCounts.forEach((word, lowerBound) -> {
+                long unreportedBound = Math.min(totalThreshold - reportedThresholds.countOf(word), unreportedTotals[bucketOf(word.hashCode())]);
+
+                if (lowerBound + unreportedBound >= lowest) {
+                    candidates.add(word, lowerBound);
+                    candidateWords.add(word);
+                }
+            });
+
+            // слово, которого не прислала ни одна секция, может войти в топ только из корзины,
+            // где неприсланных вхождений набирается на n-ю нижнюю границу
+            boolean[] hot = new boolean[unreportedTotals.length];
+
+            for (int bucket = 0; bucket < hot.length; bucket++) {
+                hot[bucket] = unreportedTotals[bucket] > 0 && unreportedTotals[bucket] >= lowest && totalThreshold >= lowest;
+            }
+
+            WordCounter exact = new WordCounter();
+            exact.merge(candidates);
+
+            // секции досчитываются параллельно; globalCounts и candidates до конца только читаются
+            IntStream.range(0, expectedNumberOfResults).parallel().forEach(taskId -> {
+                WordCounter found = recount(taskId, candidates, candidateWords, hot);
+
+                if (found != null) {
+                    synchronized (exact) {
+                        exact.merge(found);
+                    }
+                }
+            });
+
+            return exact.top(n);
+        }
+    }
+
+    // вхождения в секции taskId слов, которые она могла не прислать: кандидатов не из её topWords
+    // и слов горячих корзин, которых не прислал никто; null, если таких слов в секции нет
+    private WordCounter recount(int taskId, WordCounter candidates, List<String> candidateWords, boolean[] hot) {
+        Map<String, Long> reported;
+        int[] unreported;
+        String text;
+        byte[] utf8;
+
+        synchronized (chunkLock) {
+            reported = reportedTopWords[taskId];
+            unreported = unreportedCounts[taskId];
+            text = chunkTexts[taskId];
+            utf8 = chunkUtf8Texts[taskId];
+        }
 
-            if (list != null && !list.isEmpty()) {
-                pq.offer(new QueueNode(list.getFirst(), i, 0));
+        if (unreported == null) {
+            return null;
+        }
+
+        // корзины, в которых секция могла оставить нужные слова; остальные слова текста пропускаются
+        boolean[] wanted = new boolean[unreported.length];
+        boolean any = false;
+
+        for (int bucket = 0; bucket < wanted.length; bucket++) {
+            wanted[bucket] = hot[bucket] && unreported[bucket] > 0;
+            any |= wanted[bucket];
+        }
+        for (String word : candidateWords) {
+            int bucket = bucketOf(word.hashCode());
+
+            if (unreported[bucket] > 0 && !reported.containsKey(word)) {
+                wanted[bucket] = true;
+                any = true;
             }
         }
 
-        while (!pq.isEmpty()) {
-            QueueNode node = pq.poll();
-            result.add(node.sentence);
+        if (!any) {
+            return null;
+        }
+
+        WordCounter found = new WordCounter();
+        WordTokenizer tokenizer = new WordTokenizer();
+
+        if (text != null) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+
+                if (tokenizer.accept(c, WordTokenizer.classOf(c), i)) {
+                    countUnreported(found, tokenizer, wanted, hot, candidates, reported);
+                }
+            }
+
+            if (tokenizer.finish(text.length())) {
+                countUnreported(found, tokenizer, wanted, hot, candidates, reported);
+            }
+        } else {
+            Utf8Decoder decoder = new Utf8Decoder().reset(utf8, 0, utf8.length);
+
+            while (decoder.hasNext()) {
+                char c = decoder.next();
 
-            int nextIndex = node.index + 1;
-            List<String> list = lists.get(node.listIndex);
+                if (tokenizer.accept(c, WordTokenizer.classOf(c), decoder.charStart())) {
+                    countUnreported(found, tokenizer, wanted, hot, candidates, reported);
+                }
+            }
 
-            if (nextIndex < list.size()) {
-                pq.offer(new QueueNode(list.get(nextIndex), node.listIndex, nextIndex));
+            if (tokenizer.finish(utf8.length)) {
+                countUnreported(found, tokenizer, wanted, hot, candidates, reported);
             }
         }
 
-        return result;
+        return found;
     }
 
-    private record QueueNode(String sentence, int listIndex, int index) {
-    }
+    private void countUnreported(WordCounter found, WordTokenizer tokenizer, boolean[] wanted, boolean[] hot, WordCounter candidates, Map<String, Long> reported) {
+        int hash = tokenizer.hash();
+        int bucket = bucketOf(hash);
 
-    private Map<String,Long> getTopN(int n) {
-        Comparator<LongAdder> comparator = Comparator.comparingLong(LongAdder::sum).reversed();
+        if (!wanted[bucket]) {
+            return;
+        }
+
+        char[] buffer = tokenizer.buffer();
+        int length = tokenizer.length();
+        int slot = candidates.find(buffer, length, hash);
+        boolean unreported = slot >= 0
+                ? !reported.containsKey(candidates.key(slot))
+                : hot[bucket] && globalCounts.find(buffer, length, hash) < 0;
+
+        if (unreported) {
+            found.increment(buffer, length, hash);
+        }
+    }
 
-        return globalCounts.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(comparator))
-                .limit(n)
-                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().sum(), (a, b) -> a, HashMap::new));
+    private static int bucketOf(int hash) {
+        return WordCounter.bucketOf(hash, ResultMessage.UNREPORTED_BUCKETS);
     }
 }
@@ -0,0 +1,67 @@
+package broker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Кредиты в байтах на сообщения в обработке. Отправитель берёт кредиты под сообщение (по номеру задачи)
+// и ждёт, если их не хватает; кредиты возвращаются, когда сообщение обработано: для задачи — когда пришёл
+// её результат, для результата — когда его принял агрегатор. Так в памяти одновременно не больше capacity
+// байт текста, сколько бы ни было на входе. Сообщение больше всего бюджета пропускается, только когда
+// в обработке ничего нет, — иначе оно не прошло бы никогда.
+public class FlowControl {
+    private final long capacity;
+    private final Map<Integer, Long> held = new HashMap<>();
+    private long used;
+
+    public FlowControl(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Flow control capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public synchronized long available() {
+        return Math.max(0, capacity - used);
+    }
+
+    public synchronized void acquire(int id, long bytes) throws InterruptedException {
+        while (!fits(bytes)) {
+            wait();
+        }
+
+        take(id, bytes);
+    }
+
+    public synchronized boolean tryAcquire(int id, long bytes) {
+        if (!fits(bytes)) {
+            return false;
+        }
+
+        take(id, bytes);
+        return true;
+    }
+
+    // повторный release (например, дубликат результата) ничего не делает
+    public synchronized void release(int id) {
+        Long bytes = held.remove(id);
+
+        if (bytes != null) {
+            used -= bytes;
+            notifyAll();
+        }
+    }
+
+    private boolean fits(long bytes) {
+        return used == 0 || bytes <= capacity - used;
+    }
+
+    private void take(int id, long bytes) {
+        held.merge(id, bytes, Long::sum);
+        used += bytes;
+    }
+}
@@ -10,10 +10,15 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Consumer;
 
 
+// Очереди ограничены не числом сообщений, а кредитами: задачи — тремя четвертями бюджета памяти,
+// результаты — четвертью. Воркер ждёт в publishResult, если агрегатор не успевает.
 public class InMemoryBroker implements MessageBroker {
     private final BlockingQueue<TaskMessage> taskQueue = new LinkedBlockingQueue<>();
     private final BlockingQueue<ResultMessage> resultQueue = new LinkedBlockingQueue<>();
 
+    private final FlowControl taskCredits;
+    private final FlowControl resultCredits;
+
     private volatile Consumer<TaskMessage> taskHandler;
     private volatile Consumer<ResultMessage> resultHandler;
 
@@ -23,54 +28,89 @@ public class InMemoryBroker implements MessageBroker {
     private volatile boolean running = true;
 
     public InMemoryBroker() {
+        this(Long.MAX_VALUE);
+    }
+
+    public InMemoryBroker(long memoryBudgetBytes) {
+        taskCredits = new FlowControl(memoryBudgetBytes - memoryBudgetBytes / 4);
+        resultCredits = new FlowControl(Math.max(1, memoryBudgetBytes / 4));
+
         taskExecutor = Executors.newSingleThreadExecutor();
         resultExecutor = Executors.newSingleThreadExecutor();
+    }
 
-        taskExecutor.execute(() -> {
-            try {
-                while (running && taskHandler == null) {
-                }
-
-                while (running) {
-                    TaskMessage taskMessage = taskQueue.take();
-                    taskHandler.accept(taskMessage);
-                }
-            } catch (Exception e) {
+    // диспетчеры запускаются первой подпиской, до неё сообщения просто копятся в очереди
+    private void dispatchTasks() {
+        try {
+            while (running) {
+                TaskMessage taskMessage = taskQueue.take();
+                taskHandler.accept(taskMessage);
             }
-        });
+        } catch (Exception e) {
+        }
+    }
 
-        resultExecutor.execute(() -> {
-            try {
-                while (running && resultHandler == null) {
-                }
+    private void dispatchResults() {
+        try {
+            while (running) {
+                ResultMessage resultMessage = resultQueue.take();
 
-                while (running) {
-                    ResultMessage resultMessage = resultQueue.take();
+                try {
                     resultHandler.accept(resultMessage);
+                } finally {
+                    resultCredits.release(resultMessage.taskId);
+                    taskCredits.release(resultMessage.taskId);
                 }
-            } catch (Exception e) {
             }
-        });
+        } catch (Exception e) {
+        }
     }
 
     @Override
     public void publishTask(TaskMessage taskMessage) throws Exception {
+        taskCredits.acquire(taskMessage.id, taskMessage.sizeBytes());
         taskQueue.put(taskMessage);
     }
 
     @Override
-    public void subscribeTasks(Consumer<TaskMessage> handler) {
+    public boolean tryPublishTask(TaskMessage taskMessage) throws Exception {
+        if (!taskCredits.tryAcquire(taskMessage.id, taskMessage.sizeBytes())) {
+            return false;
+        }
+
+        taskQueue.put(taskMessage);
+        return true;
+    }
+
+    @Override
+    public synchronized void subscribeTasks(Consumer<TaskMessage> handler) {
+        boolean first = taskHandler == null;
         this.taskHandler = handler;
+
+        if (first) {
+            taskExecutor.execute(this::dispatchTasks);
+        }
     }
 
     @Override
     public void publishResult(ResultMessage resultMessage) throws Exception {
+        resultCredits.acquire(resultMessage.taskId, resultMessage.sizeBytes());
         resultQueue.put(resultMessage);
     }
 
     @Override
-    public void subscribeResults(Consumer<ResultMessage> handler) {
+    public synchronized void subscribeResults(Consumer<ResultMessage> handler) {
+        boolean first = resultHandler == null;
         this.resultHandler = handler;
+
+        if (first) {
+            resultExecutor.execute(this::dispatchResults);
+        }
+    }
+
+    @Override
+    public FlowControl taskCredits() {
+        return taskCredits;
     }
 
     @Override
@@ -0,0 +1,217 @@
+package broker;
+
+import codec.JsonCodec;
+import codec.MessageCodec;
+import jakarta.jms.BytesMessage;
+import jakarta.jms.Connection;
+import jakarta.jms.DeliveryMode;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.MessageProducer;
+import jakarta.jms.Queue;
+import jakarta.jms.Session;
+import model.ResultMessage;
+import model.TaskMessage;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+
+import java.util.function.Consumer;
+
+// Брокер JMS на встроенном ActiveMQ. В одном процессе клиенты подключаются через vm:// — без сокетов
+// и без сериализации на проводе; для нескольких процессов встроенный брокер дополнительно слушает TCP,
+// а другие процессы подключаются к нему по этому адресу. Отправка асинхронная, подтверждения копятся
+// и уходят пачками (optimizeAcknowledge), тело сообщения — BytesMessage с байтами кодека.
+// Сессии JMS однопоточные: у каждого публикующего потока своя сессия, у каждой подписки — своя.
+// Обработчик задач вызывается в потоке подписки, и подтверждение уходит после его возврата,
+// то есть после публикации результата.
+public class JmsBroker implements MessageBroker {
+    public static final int DEFAULT_TASK_PREFETCH = 4;
+    private static final int RESULT_PREFETCH = 1000;
+    private static final long MIN_PRODUCER_WINDOW = 1 << 20;
+    private static final String BROKER_NAME = "text-processing";
+
+    private final BrokerService embeddedBroker; // null, если брокер запущен другим процессом
+    private final Connection connection;
+    private final MessageCodec codec;
+
+    private final String TASK_QUEUE = "tasks";
+    private final String RESULT_QUEUE = "results";
+    private final Queue taskQueue;
+    private final Queue resultQueue;
+
+    private final ThreadLocal<Publisher> threadPublisher = new ThreadLocal<>();
+
+    private final FlowControl taskCredits;
+
+    private record Publisher(Session session, MessageProducer producer) {
+    }
+
+    public JmsBroker() throws Exception {
+        this(null, true, Long.MAX_VALUE, new JsonCodec(), DEFAULT_TASK_PREFETCH);
+    }
+
+    // tcpUrl — адрес брокера для других процессов, null — брокер доступен только этому процессу;
+    // embedded — запустить брокер здесь, иначе подключиться к уже запущенному по tcpUrl
+    public JmsBroker(String tcpUrl, boolean embedded, long memoryBudgetBytes, MessageCodec codec, int taskPrefetch) throws Exception {
+        if (!embedded && tcpUrl == null) {
+            throw new IllegalArgumentException("tcpUrl is required to connect to an external broker");
+        }
+
+        this.taskCredits = new FlowControl(memoryBudgetBytes);
+        this.codec = codec;
+
+        if (embedded) {
+            embeddedBroker = new BrokerService();
+            embeddedBroker.setBrokerName(BROKER_NAME);
+            embeddedBroker.setPersistent(false);
+            embeddedBroker.setUseJmx(false);
+            embeddedBroker.setUseShutdownHook(false);
+            if (tcpUrl != null) {
+                embeddedBroker.addConnector(tcpUrl);
+            }
+            embeddedBroker.start();
+            embeddedBroker.waitUntilStarted();
+        } else {
+            embeddedBroker = null;
+        }
+
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(embedded ? "vm://" + BROKER_NAME + "?create=false" : tcpUrl);
+        factory.setUseAsyncSend(true);
+        factory.setOptimizeAcknowledge(true);
+        // отправленное сообщение больше не меняется — копия не нужна
+        factory.setCopyMessageOnSend(false);
+        factory.getPrefetchPolicy().setQueuePrefetch(Math.max(1, taskPrefetch));
+        if (memoryBudgetBytes != Long.MAX_VALUE) {
+            // асинхронная отправка без окна не ждёт брокер вовсе
+            factory.setProducerWindowSize((int) Math.max(MIN_PRODUCER_WINDOW, Math.min(Integer.MAX_VALUE, memoryBudgetBytes / 4)));
+        }
+
+        connection = factory.createConnection();
+        connection.start();
+
+        // очереди — только имена, сессия для их создания дальше не нужна
+        try (Session session = session()) {
+            taskQueue = session.createQueue(TASK_QUEUE);
+            resultQueue = session.createQueue(RESULT_QUEUE + "?consumer.prefetchSize=" + RESULT_PREFETCH);
+        }
+    }
+
+    private Session session() throws JMSException {
+        return connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    }
+
+    private Publisher publisher() throws JMSException {
+        Publisher publisher = threadPublisher.get();
+
+        if (publisher == null) {
+            Session session = session();
+            MessageProducer producer = session.createProducer(null);
+            producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            producer.setDisableMessageID(true);
+            producer.setDisableMessageTimestamp(true);
+
+            publisher = new Publisher(session, producer);
+            threadPublisher.set(publisher);
+        }
+
+        return publisher;
+    }
+
+    private void send(Queue queue, byte[] body) throws JMSException {
+        Publisher publisher = publisher();
+        BytesMessage message = publisher.session().createBytesMessage();
+        message.writeBytes(body);
+        publisher.producer().send(queue, message);
+    }
+
+    private static byte[] body(Message message) throws JMSException {
+        BytesMessage bytes = (BytesMessage) message;
+        byte[] body = new byte[(int) bytes.getBodyLength()];
+        bytes.readBytes(body);
+        return body;
+    }
+
+    @Override
+    public void publishTask(TaskMessage taskMessage) throws Exception {
+        taskCredits.acquire(taskMessage.id, taskMessage.sizeBytes());
+        send(taskQueue, codec.encodeTask(taskMessage));
+    }
+
+    @Override
+    public boolean tryPublishTask(TaskMessage taskMessage) throws Exception {
+        if (!taskCredits.tryAcquire(taskMessage.id, taskMessage.sizeBytes())) {
+            return false;
+        }
+
+        send(taskQueue, codec.encodeTask(taskMessage));
+        return true;
+    }
+
+    // каждая подписка — отдельный потребитель со своей сессией и потоком доставки
+    @Override
+    public void subscribeTasks(Consumer<TaskMessage> handler) throws Exception {
+        session().createConsumer(taskQueue).setMessageListener(message -> {
+            TaskMessage taskMessage;
+
+            try {
+                taskMessage = codec.decodeTask(body(message));
+            } catch (Exception e) {
+                // исключение из слушателя не даёт подтвердить сообщение: ActiveMQ доставит его снова,
+                // а после исчерпания повторов переложит в ActiveMQ.DLQ, а не потеряет
+                System.err.println("[JmsBroker] Не удалось разобрать задачу: " + e.getMessage());
+                throw new IllegalStateException("Cannot decode task message", e);
+            }
+
+            handler.accept(taskMessage);
+        });
+    }
+
+    @Override
+    public void publishResult(ResultMessage resultMessage) throws Exception {
+        send(resultQueue, codec.encodeResult(resultMessage));
+    }
+
+    @Override
+    public void subscribeResults(Consumer<ResultMessage> handler) throws Exception {
+        session().createConsumer(resultQueue).setMessageListener(message -> {
+            try {
+                ResultMessage resultMessage = codec.decodeResult(body(message));
+
+                try {
+                    handler.accept(resultMessage);
+                } finally {
+                    taskCredits.release(resultMessage.taskId);
+                }
+            } catch (Exception e) {
+            }
+        });
+    }
+
+    @Override
+    public boolean callsHandlerOnSubscriptionThread() {
+        return true;
+    }
+
+    @Override
+    public FlowControl taskCredits() {
+        return taskCredits;
+    }
+
+    @Override
+    public void close() {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        if (embeddedBroker != null) {
+            try {
+                embeddedBroker.stop();
+                embeddedBroker.waitUntilStopped();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
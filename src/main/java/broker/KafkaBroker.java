@@ -1,156 +1,343 @@
 package broker;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import codec.JsonCodec;
+import codec.MessageCodec;
 import model.ResultMessage;
 import model.TaskMessage;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TopicExistsException;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 
+// Задачи ограничены кредитами на стороне продюсера. Из того же бюджета заданы буфер отправки
+// KafkaProducer и объём одной выборки потребителя, чтобы клиент Kafka не держал в памяти больше.
+// Топик задач разбит на разделы, каждая подписка на задачи — отдельный потребитель группы со своим потоком.
+// Выборка poll() обрабатывается целиком, и её смещения фиксируются вручную, только когда результаты
+// всех её задач приняты Kafka; задачи без результата перечитываются. Задача, которую воркер не обработал
+// (taskFailed) или чей результат Kafka не приняла, перечитывается сразу, но не больше MAX_TASK_ATTEMPTS раз,
+// потом пропускается с ошибкой в журнале. Подписка на результаты читает
+// все разделы топика результатов с конца, позиция определяется до возврата из subscribeResults.
 public class KafkaBroker implements MessageBroker {
+    private static final long MIN_CLIENT_BUFFER = 1 << 20;
+    public static final int DEFAULT_TASK_PREFETCH = 4;
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(100);
+    // должно быть заметно меньше max.poll.interval.ms (по умолчанию 5 минут)
+    private static final long BATCH_TIMEOUT_MS = 60_000;
+    private static final int MAX_TASK_ATTEMPTS = 3;
+    private static final String LINGER_MS = "5";
+    private static final String BATCH_SIZE = String.valueOf(256 * 1024);
+
     private final KafkaProducer<String, byte[]> producer;
-    private final KafkaConsumer<String, byte[]> taskConsumer;
-    private final KafkaConsumer<String, byte[]> resultConsumer;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final Properties taskConsumerProperties;
+    private final Properties resultConsumerProperties;
+    private final MessageCodec codec;
 
     private final String TASK_TOPIC = "tasks";
     private final String RESULT_TOPIC = "results";
 
-    private volatile Consumer<TaskMessage> taskHandler;
-    private volatile Consumer<ResultMessage> resultHandler;
-
-    private final ExecutorService taskExecutor = Executors.newSingleThreadExecutor();
-    private final ExecutorService resultExecutor = Executors.newSingleThreadExecutor();
+    // задача -> выборка, смещение которой ждёт её результата
+    private final Map<Integer, TaskBatch> pendingCommits = new ConcurrentHashMap<>();
+    // задача -> сколько раз её обработка или отправка результата не удалась
+    private final Map<Integer, Integer> failedAttempts = new ConcurrentHashMap<>();
+    private final ExecutorService consumers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "kafka-consumer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private volatile boolean running = true;
 
-    public KafkaBroker(String bootstrapServers, String groupId) {
-        Properties producerProperties = new Properties();
-        producerProperties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+    private final FlowControl taskCredits;
+
+    public KafkaBroker(String bootstrapServers, String groupId) throws Exception {
+        this(bootstrapServers, groupId, Long.MAX_VALUE, new JsonCodec(), 1, DEFAULT_TASK_PREFETCH, false);
+    }
+
+    // partitions — число разделов топика задач, не меньше числа потребителей группы, иначе лишние простаивают;
+    // taskPrefetch — сколько задач потребитель забирает за один poll();
+    // skipStaleTasks — сдвинуть смещения группы в конец топика задач, чтобы не обрабатывать задачи прошлых
+    // запусков. Годится, только пока в группе нет потребителей: продюсер и воркеры запускаются вместе
+    public KafkaBroker(String bootstrapServers, String groupId, long memoryBudgetBytes, MessageCodec codec,
+                       int partitions, int taskPrefetch, boolean skipStaleTasks) throws Exception {
+        this.taskCredits = new FlowControl(memoryBudgetBytes);
+        this.codec = codec;
+        long clientBuffer = Math.max(MIN_CLIENT_BUFFER, Math.min(Integer.MAX_VALUE, memoryBudgetBytes / 4));
 
-//        try (AdminClient adminClient = AdminClient.create(producerProperties)) {
-//            // Delete the topic
-//            DeleteTopicsResult deleteResult = adminClient.deleteTopics(List.of(TASK_TOPIC, RESULT_TOPIC));
-//            deleteResult.all().get(); // Wait for deletion to complete
-//            System.out.println("Topics deleted successfully.");
-//
-//            // Optional: Recreate the topic if you need it again
-//            short replicationFactor = 1; // Adjust as needed
-//            int numPartitions = 1;      // Adjust as needed
-//            NewTopic newTopic = new NewTopic(TASK_TOPIC, numPartitions, replicationFactor);
-//            NewTopic newTopic2 = new NewTopic(RESULT_TOPIC, numPartitions, replicationFactor);
-//            try {
-//                adminClient.createTopics(List.of(newTopic, newTopic2)).all().get();
-//                System.out.println("Topic recreated successfully.");
-//            } catch (ExecutionException e) {
-//                if (e.getCause() instanceof TopicExistsException) {
-//                    System.out.println("Topic already exists, no need to recreate. " + e.getMessage());
-//                } else {
-//                    throw e;
-//                }
-//            }
-//        } catch (ExecutionException e) {
-//            System.out.println("");
-////            throw new RuntimeException(e);
-//        } catch (InterruptedException e) {
-//            System.out.println("");
-////            throw new RuntimeException(e);
-//        }
+        createTopics(bootstrapServers, partitions);
 
+        Properties producerProperties = new Properties();
+        producerProperties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         producerProperties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringSerializer");
         producerProperties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.ByteArraySerializer");
-//        producerProperties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true"); // ровно 1 доставка
-//        producerProperties.put(ProducerConfig.ACKS_CONFIG, "0");
+        // сообщения копятся в пачки раздела до batch.size или linger.ms
+        producerProperties.put(ProducerConfig.LINGER_MS_CONFIG, LINGER_MS);
+        producerProperties.put(ProducerConfig.BATCH_SIZE_CONFIG, BATCH_SIZE);
+        producerProperties.put(ProducerConfig.ACKS_CONFIG, "all");
+        if (memoryBudgetBytes != Long.MAX_VALUE) {
+            producerProperties.put(ProducerConfig.BUFFER_MEMORY_CONFIG, String.valueOf(clientBuffer));
+        }
         this.producer = new KafkaProducer<>(producerProperties);
 
         Properties consumerProperties = new Properties();
         consumerProperties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        consumerProperties.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
         consumerProperties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringDeserializer");
         consumerProperties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.ByteArrayDeserializer");
-        consumerProperties.put(ConsumerConfig.ALLOW_AUTO_CREATE_TOPICS_CONFIG, "true");
-        consumerProperties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        consumerProperties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        if (memoryBudgetBytes != Long.MAX_VALUE) {
+            consumerProperties.put(ConsumerConfig.FETCH_MAX_BYTES_CONFIG, String.valueOf(clientBuffer));
+            consumerProperties.put(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG, String.valueOf(clientBuffer));
+        }
 
-        this.taskConsumer = new KafkaConsumer<>(consumerProperties);
-        this.resultConsumer = new KafkaConsumer<>(consumerProperties);
+        this.resultConsumerProperties = new Properties();
+        resultConsumerProperties.putAll(consumerProperties);
 
-        taskConsumer.subscribe(List.of(TASK_TOPIC));
-        resultConsumer.subscribe(List.of(RESULT_TOPIC));
+        this.taskConsumerProperties = consumerProperties;
+        taskConsumerProperties.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        // задачи, опубликованные до подписки, не теряются
+        taskConsumerProperties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        taskConsumerProperties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, String.valueOf(Math.max(1, taskPrefetch)));
 
-        taskExecutor.submit(() -> {
-            try {
-                while (running && taskHandler == null) {
-                }
+        if (skipStaleTasks) {
+            skipStaleTasks();
+        }
+    }
 
-                while (running) {
-                    ConsumerRecords<String, byte[]> records = taskConsumer.poll(Duration.ofMillis(200));
+    private void createTopics(String bootstrapServers, int partitions) throws Exception {
+        Properties adminProperties = new Properties();
+        adminProperties.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
 
-                    records.forEach(record -> {
-                        try {
-                            TaskMessage taskMessage = mapper.readValue(record.value(), TaskMessage.class);
-                            taskHandler.accept(taskMessage);
-                        } catch (Exception e) {
-                        }
-                    });
+        try (Admin admin = Admin.create(adminProperties)) {
+            for (NewTopic topic : List.of(new NewTopic(TASK_TOPIC, Math.max(1, partitions), (short) 1), new NewTopic(RESULT_TOPIC, 1, (short) 1))) {
+                try {
+                    admin.createTopics(List.of(topic)).all().get();
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof TopicExistsException)) {
+                        throw e;
+                    }
                 }
-            } finally {
-                taskConsumer.close();
             }
-        });
+        }
+    }
 
-        resultExecutor.submit(() -> {
-            try{
-                while (running && resultHandler == null) {
-                }
+    private void skipStaleTasks() {
+        try (KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(taskConsumerProperties)) {
+            List<TopicPartition> partitions = assignAtEnd(consumer, TASK_TOPIC);
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
 
-                while (running) {
-                    ConsumerRecords<String, byte[]> records = resultConsumer.poll(Duration.ofMillis(200));
-
-                    records.forEach(record -> {
-                        try {
-                            ResultMessage resultMessage = mapper.readValue(record.value(), ResultMessage.class);
-                            resultHandler.accept(resultMessage);
-                        } catch (Exception e) {
-                        }
-                    });
-                }
-            } finally {
-                resultConsumer.close();
+            for (TopicPartition partition : partitions) {
+                offsets.put(partition, new OffsetAndMetadata(consumer.position(partition)));
             }
-        });
+
+            consumer.commitSync(offsets);
+        }
+    }
+
+    // назначает все разделы топика и сразу определяет позиции в конце
+    private List<TopicPartition> assignAtEnd(KafkaConsumer<String, byte[]> consumer, String topic) {
+        List<TopicPartition> partitions = new ArrayList<>();
+
+        for (PartitionInfo info : consumer.partitionsFor(topic)) {
+            partitions.add(new TopicPartition(topic, info.partition()));
+        }
+
+        consumer.assign(partitions);
+        consumer.seekToEnd(partitions);
+
+        for (TopicPartition partition : partitions) {
+            consumer.position(partition);
+        }
+
+        return partitions;
     }
 
     @Override
     public void publishTask(TaskMessage taskMessage) throws Exception {
-        byte[] data = mapper.writeValueAsBytes(taskMessage);
+        taskCredits.acquire(taskMessage.id, taskMessage.sizeBytes());
+        send(taskMessage);
+    }
+
+    @Override
+    public boolean tryPublishTask(TaskMessage taskMessage) throws Exception {
+        if (!taskCredits.tryAcquire(taskMessage.id, taskMessage.sizeBytes())) {
+            return false;
+        }
+
+        send(taskMessage);
+        return true;
+    }
+
+    // ключ — номер задачи: задачи расходятся по разделам
+    private void send(TaskMessage taskMessage) throws Exception {
+        byte[] data = codec.encodeTask(taskMessage);
         producer.send(new ProducerRecord<>(TASK_TOPIC, String.valueOf(taskMessage.id), data));
     }
 
+    @Override
+    public void flush() {
+        producer.flush();
+    }
+
     @Override
     public void subscribeTasks(Consumer<TaskMessage> handler) {
-        this.taskHandler = handler;
+        KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(taskConsumerProperties);
+        consumer.subscribe(List.of(TASK_TOPIC));
+        consumers.submit(() -> consumeTasks(consumer, handler));
+    }
+
+    private void consumeTasks(KafkaConsumer<String, byte[]> consumer, Consumer<TaskMessage> handler) {
+        // смещения записей, чьи результаты уже отправлены, но которые перечитываются вслед за неудачной
+        Map<TopicPartition, Set<Long>> delivered = new HashMap<>();
+
+        try {
+            while (running) {
+                ConsumerRecords<String, byte[]> records = consumer.poll(POLL_TIMEOUT);
+
+                if (records.isEmpty()) {
+                    continue;
+                }
+
+                TaskBatch batch = new TaskBatch();
+
+                for (ConsumerRecord<String, byte[]> record : records) {
+                    TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                    Set<Long> skipped = delivered.get(partition);
+                    TaskMessage taskMessage;
+
+                    if (skipped != null && skipped.remove(record.offset())) {
+                        batch.add(-1, partition, record.offset(), true);
+                        continue;
+                    }
+
+                    try {
+                        taskMessage = codec.decodeTask(record.value());
+                    } catch (Exception e) {
+                        // нечитаемое сообщение не перечитываем: его смещение фиксируется как обработанное
+                        batch.add(-1, partition, record.offset(), true);
+                        continue;
+                    }
+
+                    batch.add(taskMessage.id, partition, record.offset(), false);
+                    pendingCommits.put(taskMessage.id, batch);
+                    handler.accept(taskMessage);
+                }
+
+                batch.await(BATCH_TIMEOUT_MS);
+                batch.commit(consumer, delivered);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        } finally {
+            consumer.close();
+        }
     }
 
     @Override
     public void publishResult(ResultMessage resultMessage) throws Exception {
-        byte[] data = mapper.writeValueAsBytes(resultMessage);
-        producer.send(new ProducerRecord<>(RESULT_TOPIC, String.valueOf(resultMessage.taskId), data));
+        byte[] data = codec.encodeResult(resultMessage);
+        int taskId = resultMessage.taskId;
+
+        producer.send(new ProducerRecord<>(RESULT_TOPIC, String.valueOf(taskId), data), (metadata, exception) -> {
+            if (exception != null) {
+                failed(taskId);
+                return;
+            }
+
+            TaskBatch batch = pendingCommits.remove(taskId);
+            failedAttempts.remove(taskId);
+
+            if (batch != null) {
+                batch.completed(taskId, true);
+            }
+        });
+    }
+
+    @Override
+    public void taskFailed(int taskId) {
+        failed(taskId);
+    }
+
+    // выборка перечитывается с этой задачи; после MAX_TASK_ATTEMPTS неудач задача фиксируется без результата
+    private void failed(int taskId) {
+        TaskBatch batch = pendingCommits.remove(taskId);
+
+        if (batch == null) {
+            return;
+        }
+
+        int attempts = failedAttempts.merge(taskId, 1, Integer::sum);
+
+        if (attempts >= MAX_TASK_ATTEMPTS) {
+            failedAttempts.remove(taskId);
+            System.err.println("[KafkaBroker] Task " + taskId + " failed " + attempts + " times, skipping it: its result will be missing");
+        }
+
+        batch.completed(taskId, attempts >= MAX_TASK_ATTEMPTS);
     }
 
     @Override
     public void subscribeResults(Consumer<ResultMessage> handler) {
-        this.resultHandler = handler;
+        KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(resultConsumerProperties);
+        assignAtEnd(consumer, RESULT_TOPIC);
+
+        consumers.submit(() -> {
+            try {
+                while (running) {
+                    for (ConsumerRecord<String, byte[]> record : consumer.poll(POLL_TIMEOUT)) {
+                        try {
+                            ResultMessage resultMessage = codec.decodeResult(record.value());
+
+                            try {
+                                handler.accept(resultMessage);
+                            } finally {
+                                taskCredits.release(resultMessage.taskId);
+                            }
+                        } catch (Exception e) {
+                        }
+                    }
+                }
+            } finally {
+                consumer.close();
+            }
+        });
+    }
+
+    @Override
+    public boolean callsHandlerOnSubscriptionThread() {
+        return true;
+    }
+
+    @Override
+    public FlowControl taskCredits() {
+        return taskCredits;
     }
 
     @Override
@@ -163,7 +350,98 @@ public class KafkaBroker implements MessageBroker {
             e.printStackTrace();
         }
 
-        taskExecutor.shutdownNow();
-        resultExecutor.shutdownNow();
+        consumers.shutdown();
+    }
+
+    // Одна выборка poll(): смещения её записей, задачи, результаты которых ещё не отправлены,
+    // и задачи, которые надо перечитать: воркер их не обработал или Kafka не приняла результат.
+    // Фиксируется до первой незавершённой записи каждого раздела; с неё же раздел читается заново.
+    private final class TaskBatch {
+        private final List<Integer> taskIds = new ArrayList<>();
+        private final List<TopicPartition> partitions = new ArrayList<>();
+        private final List<Long> offsets = new ArrayList<>();
+        private final Set<Integer> waiting = new HashSet<>(); // под this
+        private final Set<Integer> failed = new HashSet<>(); // под this
+
+        void add(int taskId, TopicPartition partition, long offset, boolean done) {
+            taskIds.add(taskId);
+            partitions.add(partition);
+            offsets.add(offset);
+
+            if (!done) {
+                synchronized (this) {
+                    waiting.add(taskId);
+                }
+            }
+        }
+
+        synchronized void completed(int taskId, boolean done) {
+            waiting.remove(taskId);
+
+            if (!done) {
+                failed.add(taskId);
+            }
+
+            if (waiting.isEmpty()) {
+                notifyAll();
+            }
+        }
+
+        synchronized void await(long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+
+            while (!waiting.isEmpty() && running) {
+                long left = deadline - System.currentTimeMillis();
+
+                if (left <= 0) {
+                    return;
+                }
+                wait(Math.min(left, POLL_TIMEOUT.toMillis()));
+            }
+        }
+
+        void commit(KafkaConsumer<String, byte[]> consumer, Map<TopicPartition, Set<Long>> delivered) {
+            Map<TopicPartition, Long> committed = new HashMap<>();
+            Map<TopicPartition, Long> retry = new HashMap<>();
+
+            synchronized (this) {
+                // записи раздела в выборке идут по возрастанию смещений
+                for (int i = 0; i < taskIds.size(); i++) {
+                    TopicPartition partition = partitions.get(i);
+
+                    boolean done = !waiting.contains(taskIds.get(i)) && !failed.contains(taskIds.get(i));
+
+                    if (retry.containsKey(partition)) {
+                        if (done) {
+                            delivered.computeIfAbsent(partition, key -> new HashSet<>()).add(offsets.get(i));
+                        }
+                        continue;
+                    }
+                    if (!done) {
+                        retry.put(partition, offsets.get(i));
+                    } else {
+                        committed.put(partition, offsets.get(i) + 1);
+                    }
+                }
+
+                // перечитанные задачи попадут в новую выборку
+                for (int taskId : waiting) {
+                    pendingCommits.remove(taskId, this);
+                }
+            }
+
+            Map<TopicPartition, OffsetAndMetadata> commit = new HashMap<>();
+
+            for (Map.Entry<TopicPartition, Long> entry : committed.entrySet()) {
+                commit.put(entry.getKey(), new OffsetAndMetadata(entry.getValue()));
+            }
+            if (!commit.isEmpty()) {
+                consumer.commitSync(commit);
+            }
+
+            for (Map.Entry<TopicPartition, Long> entry : retry.entrySet()) {
+                consumer.seek(entry.getKey(), entry.getValue());
+            }
+        }
     }
 }
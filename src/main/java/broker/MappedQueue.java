@@ -0,0 +1,217 @@
+package broker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Очередь в файлах, отображённых в память, для многих писателей и читателей из разных процессов одного
+// хоста — в духе Chronicle Queue. Записи только добавляются в конец, файлами-сегментами по SEGMENT_SIZE байт
+// (name.0, name.1, ...); запись не пересекает границу сегмента: если не помещается, в конце сегмента
+// остаётся метка PADDING. Позиции конца (tail) и начала (head) лежат в файле name.meta и сдвигаются CAS-ом
+// через VarHandle, так что место под запись и саму запись для чтения захватывает ровно один поток.
+// Запись — заголовок int и тело; заголовок 0 — запись ещё не готова, иначе длина тела + 1, публикуется
+// setRelease после тела. Сегмент, который прошли все читатели, удаляется.
+// Процесс, упавший между захватом места и публикацией заголовка, останавливает очередь; запись,
+// захваченная читателем, который упал, теряется.
+final class MappedQueue {
+    private static final int SEGMENT_BITS = 28;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int HEADER = 4;
+    private static final int ALIGNMENT = 8;
+    private static final int PADDING = -1;
+    private static final int META_SIZE = 4096;
+    // поля meta на разных строках кэша
+    private static final int TAIL = 0;
+    private static final int HEAD = 64;
+    private static final int CLOSED = 128;
+    private static final long OPEN_POLL_MS = 10;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final Path directory;
+    private final String name;
+    private final MappedByteBuffer meta;
+    private final Map<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+
+    private MappedQueue(Path directory, String name, boolean create) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.meta = map(directory.resolve(name + ".meta"), META_SIZE, create);
+    }
+
+    // новая пустая очередь: файлы прежней с тем же именем удаляются
+    static MappedQueue create(Path directory, String name) throws IOException {
+        Files.createDirectories(directory);
+        delete(directory, name);
+        return new MappedQueue(directory, name, true);
+    }
+
+    // очередь, которую создал другой процесс; ждёт, пока она появится
+    static MappedQueue open(Path directory, String name) throws IOException, InterruptedException {
+        while (!Files.exists(directory.resolve(name + ".meta"))) {
+            Thread.sleep(OPEN_POLL_MS);
+        }
+
+        return new MappedQueue(directory, name, false);
+    }
+
+    void offer(byte[] body) {
+        int size = align(HEADER + body.length);
+
+        if (size > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Message of " + body.length + " bytes does not fit a queue segment");
+        }
+
+        while (true) {
+            long position = (long) LONGS.getVolatile(meta, TAIL);
+            int offset = offset(position);
+
+            if (offset + size > SEGMENT_SIZE) {
+                if (LONGS.compareAndSet(meta, TAIL, position, position - offset + SEGMENT_SIZE)) {
+                    INTS.setRelease(segment(position, true), offset, PADDING);
+                }
+                continue;
+            }
+
+            if (LONGS.compareAndSet(meta, TAIL, position, position + size)) {
+                MappedByteBuffer segment = segment(position, true);
+                segment.put(offset + HEADER, body);
+                INTS.setRelease(segment, offset, body.length + 1);
+                return;
+            }
+        }
+    }
+
+    // null, если готовых записей нет
+    byte[] poll() {
+        while (true) {
+            long position = (long) LONGS.getVolatile(meta, HEAD);
+            MappedByteBuffer segment = segment(position, false);
+
+            if (segment == null) {
+                // сегмента нет: либо его уже прошли и удалили другие читатели, либо писатель его ещё не начал
+                if ((long) LONGS.getVolatile(meta, HEAD) != position) {
+                    continue;
+                }
+                return null;
+            }
+
+            int offset = offset(position);
+            int header = (int) INTS.getAcquire(segment, offset);
+
+            if (header == 0) {
+                return null;
+            }
+
+            if (header == PADDING) {
+                if (LONGS.compareAndSet(meta, HEAD, position, position - offset + SEGMENT_SIZE)) {
+                    release(position >>> SEGMENT_BITS);
+                }
+                continue;
+            }
+
+            int length = header - 1;
+            long next = position + align(HEADER + length);
+
+            if (LONGS.compareAndSet(meta, HEAD, position, next)) {
+                byte[] body = new byte[length];
+                segment.get(offset + HEADER, body);
+
+                // запись закончилась ровно на границе — сегмент пройден, как и после PADDING
+                if (next >>> SEGMENT_BITS != position >>> SEGMENT_BITS) {
+                    release(position >>> SEGMENT_BITS);
+                }
+                return body;
+            }
+        }
+    }
+
+    void markClosed() {
+        LONGS.setRelease(meta, CLOSED, 1L);
+    }
+
+    boolean isClosed() {
+        return (long) LONGS.getAcquire(meta, CLOSED) != 0;
+    }
+
+    // удаляет файлы очереди; отображения, открытые другими процессами, остаются действительными
+    void delete() throws IOException {
+        segments.clear();
+        delete(directory, name);
+    }
+
+    private static void delete(Path directory, String name) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().startsWith(name + ".")) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    // файл сегмента создаёт только писатель, захвативший в нём место; читатель не создаёт файлы —
+    // иначе он вернул бы на диск сегмент, который уже удалён. null, если файла нет и create = false
+    private MappedByteBuffer segment(long position, boolean create) {
+        long index = position >>> SEGMENT_BITS;
+        MappedByteBuffer segment = segments.get(index);
+
+        if (segment != null) {
+            return segment;
+        }
+
+        // сегменты, которые прошли все читатели, больше не нужны и этому процессу
+        long head = ((long) LONGS.getVolatile(meta, HEAD)) >>> SEGMENT_BITS;
+        segments.keySet().removeIf(cached -> cached < head);
+
+        return segments.computeIfAbsent(index, i -> {
+            try {
+                return map(directory.resolve(name + "." + i), SEGMENT_SIZE, create);
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void release(long index) {
+        segments.remove(index);
+
+        try {
+            Files.deleteIfExists(directory.resolve(name + "." + index));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // файл дополняется нулями до size; на диске место занимают только записанные страницы.
+    // Без create файл должен уже существовать, иначе NoSuchFileException
+    private static MappedByteBuffer map(Path path, int size, boolean create) throws IOException {
+        try (FileChannel channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static int offset(long position) {
+        return (int) (position & (SEGMENT_SIZE - 1));
+    }
+
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+}
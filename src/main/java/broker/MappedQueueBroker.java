@@ -0,0 +1,164 @@
+package broker;
+
+import codec.MessageCodec;
+import config.AppConfig.WaitStrategy;
+import model.ResultMessage;
+import model.TaskMessage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Брокер без демона на двух очередях в отображённых в память файлах (MappedQueue): продюсер, воркеры
+// и агрегатор могут работать в отдельных JVM одного хоста и обмениваться сообщениями через страничный кэш.
+// Процесс с продюсером создаёт очереди в каталоге заново, а при закрытии отмечает их закрытыми и удаляет;
+// воркеры других процессов открывают их и по этой отметке завершаются (awaitClosed). Каждая подписка —
+// свой поток, который забирает сообщения из файла и вызывает обработчик у себя; пустая очередь
+// ожидается по стратегии, как у RingBufferBroker. Кредиты задач действуют в процессе продюсера.
+public class MappedQueueBroker implements MessageBroker {
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long PARK_NANOS = 50_000;
+    private static final long CLOSED_POLL_MS = 10;
+
+    private final MappedQueue tasks;
+    private final MappedQueue results;
+    private final boolean owner;
+    private final MessageCodec codec;
+    private final WaitStrategy waitStrategy;
+    private final FlowControl taskCredits;
+    private final List<Thread> consumers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running = true;
+
+    // create — создать очереди (процесс продюсера), иначе дождаться и открыть созданные другим процессом
+    public MappedQueueBroker(Path directory, boolean create, WaitStrategy waitStrategy, long memoryBudgetBytes, MessageCodec codec) throws IOException, InterruptedException {
+        this.owner = create;
+        this.tasks = create ? MappedQueue.create(directory, "tasks") : MappedQueue.open(directory, "tasks");
+        this.results = create ? MappedQueue.create(directory, "results") : MappedQueue.open(directory, "results");
+        this.waitStrategy = waitStrategy;
+        this.taskCredits = new FlowControl(memoryBudgetBytes);
+        this.codec = codec;
+    }
+
+    @Override
+    public void publishTask(TaskMessage taskMessage) throws Exception {
+        taskCredits.acquire(taskMessage.id, taskMessage.sizeBytes());
+        tasks.offer(codec.encodeTask(taskMessage));
+    }
+
+    @Override
+    public boolean tryPublishTask(TaskMessage taskMessage) throws Exception {
+        if (!taskCredits.tryAcquire(taskMessage.id, taskMessage.sizeBytes())) {
+            return false;
+        }
+
+        tasks.offer(codec.encodeTask(taskMessage));
+        return true;
+    }
+
+    // обработчик вызывается в потоке подписки
+    @Override
+    public void subscribeTasks(Consumer<TaskMessage> handler) {
+        startConsumer("mapped-tasks-" + consumers.size(), tasks::poll, body -> handler.accept(codec.decodeTask(body)));
+    }
+
+    @Override
+    public void publishResult(ResultMessage resultMessage) throws Exception {
+        results.offer(codec.encodeResult(resultMessage));
+    }
+
+    @Override
+    public void subscribeResults(Consumer<ResultMessage> handler) {
+        startConsumer("mapped-results", results::poll, body -> {
+            ResultMessage resultMessage = codec.decodeResult(body);
+
+            try {
+                handler.accept(resultMessage);
+            } finally {
+                taskCredits.release(resultMessage.taskId);
+            }
+        });
+    }
+
+    @Override
+    public boolean callsHandlerOnSubscriptionThread() {
+        return true;
+    }
+
+    @Override
+    public FlowControl taskCredits() {
+        return taskCredits;
+    }
+
+    @Override
+    public void awaitClosed() throws InterruptedException {
+        while (running && !tasks.isClosed()) {
+            Thread.sleep(CLOSED_POLL_MS);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+
+        for (Thread consumer : consumers) {
+            LockSupport.unpark(consumer);
+        }
+
+        if (owner) {
+            tasks.markClosed();
+
+            try {
+                tasks.delete();
+                results.delete();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private interface BodyHandler {
+        void accept(byte[] body) throws Exception;
+    }
+
+    private void startConsumer(String name, Supplier<byte[]> queue, BodyHandler handler) {
+        Thread consumer = new Thread(() -> {
+            int idle = 0;
+
+            while (running) {
+                byte[] body = queue.get();
+
+                if (body == null) {
+                    idle(idle++);
+                    continue;
+                }
+
+                idle = 0;
+
+                try {
+                    handler.accept(body);
+                } catch (Exception e) {
+                }
+            }
+        }, name);
+
+        consumer.setDaemon(true);
+        consumers.add(consumer);
+        consumer.start();
+    }
+
+    private void idle(int idle) {
+        if (idle < SPINS || waitStrategy == WaitStrategy.SPIN) {
+            Thread.onSpinWait();
+        } else if (idle < SPINS + YIELDS || waitStrategy == WaitStrategy.YIELD) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+}
@@ -3,12 +3,40 @@ package broker;
 import model.ResultMessage;
 import model.TaskMessage;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.function.Consumer;
 
+// Поток задач ограничен кредитами в байтах (taskCredits): publishTask ждёт, пока хватит кредитов,
+// tryPublishTask в этом случае сразу возвращает false. Кредиты задачи возвращаются, когда её результат
+// доставлен подписчику результатов.
 public interface MessageBroker {
     void publishTask(TaskMessage taskMessage) throws Exception;
+    boolean tryPublishTask(TaskMessage taskMessage) throws Exception;
     void subscribeTasks(Consumer<TaskMessage> handler) throws Exception;
     void publishResult(ResultMessage resultMessage) throws Exception;
     void subscribeResults(Consumer<ResultMessage> handler) throws Exception;
+    FlowControl taskCredits();
+
+    // true — обработчик задач вызывается в потоке подписки и держит его до возврата: воркеру нужен не пул,
+    // а столько подписок, сколько потоков
+    default boolean callsHandlerOnSubscriptionThread() {
+        return false;
+    }
+
+    // отправляет задачи, накопленные в пачке этим потоком; продюсер вызывает в конце
+    default void flush() throws Exception {
+    }
+
+    // воркер не смог обработать задачу, и результата не будет. Брокер, который держит задачу
+    // до результата, возвращает её в очередь или после нескольких попыток отбрасывает
+    default void taskFailed(int taskId) throws Exception {
+    }
+
+    // для воркера в отдельном процессе: ждёт, пока процесс продюсера закончит работу. Большинство брокеров
+    // об этом не сообщают — тогда воркер работает до остановки процесса
+    default void awaitClosed() throws InterruptedException {
+        new CountDownLatch(1).await();
+    }
+
     void close();
 }
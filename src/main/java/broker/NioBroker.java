@@ -0,0 +1,115 @@
+package broker;
+
+import codec.MessageCodec;
+import model.ResultMessage;
+import model.TaskMessage;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.function.Consumer;
+
+// Встроенный брокер для запуска на нескольких узлах без внешнего брокера: координатор (NioCoordinator)
+// сам раздаёт задачи воркерам по TCP и принимает от них результаты, воркеры (NioWorkerClient)
+// подключаются к нему. В одном процессе могут быть обе стороны — тогда воркеры ходят через loopback.
+// Секции из диапазонов файла координатор отправляет байтами файла без копии в куче, так что файл
+// нужен только координатору. Кредиты задач действуют в процессе координатора.
+public class NioBroker implements MessageBroker {
+    private final NioCoordinator coordinator; // null в процессе только с воркерами
+    private final NioWorkerClient client; // null в процессе координатора без воркеров
+    private final MessageCodec codec;
+    private final FlowControl taskCredits;
+
+    public NioBroker(String host, int port, boolean coordinator, boolean workers, long memoryBudgetBytes, MessageCodec codec, int taskPrefetch) throws Exception {
+        this.codec = codec;
+        this.taskCredits = new FlowControl(memoryBudgetBytes);
+        // координатор слушает только адрес из --coordinator, а в общем с воркерами процессе — только loopback
+        InetSocketAddress address = coordinator && workers
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                : new InetSocketAddress(host, port);
+        this.coordinator = coordinator ? new NioCoordinator(address, codec) : null;
+        this.client = workers ? new NioWorkerClient(address, codec, taskPrefetch) : null;
+    }
+
+    @Override
+    public void publishTask(TaskMessage taskMessage) throws Exception {
+        taskCredits.acquire(taskMessage.id, taskMessage.sizeBytes());
+        coordinator().submit(taskMessage);
+    }
+
+    @Override
+    public boolean tryPublishTask(TaskMessage taskMessage) throws Exception {
+        if (!taskCredits.tryAcquire(taskMessage.id, taskMessage.sizeBytes())) {
+            return false;
+        }
+
+        coordinator().submit(taskMessage);
+        return true;
+    }
+
+    // обработчик вызывается в потоке подписки
+    @Override
+    public void subscribeTasks(Consumer<TaskMessage> handler) throws Exception {
+        client().subscribe(handler);
+    }
+
+    @Override
+    public void publishResult(ResultMessage resultMessage) throws Exception {
+        client().sendResult(codec.encodeResult(resultMessage));
+    }
+
+    // координатор сразу отдаёт задачу снова, не дожидаясь конца аренды
+    @Override
+    public void taskFailed(int taskId) throws Exception {
+        client().sendFailure(taskId);
+    }
+
+    @Override
+    public void subscribeResults(Consumer<ResultMessage> handler) {
+        coordinator().setResultHandler(result -> {
+            try {
+                handler.accept(result);
+            } finally {
+                taskCredits.release(result.taskId);
+            }
+        });
+    }
+
+    @Override
+    public boolean callsHandlerOnSubscriptionThread() {
+        return true;
+    }
+
+    @Override
+    public FlowControl taskCredits() {
+        return taskCredits;
+    }
+
+    @Override
+    public void awaitClosed() throws InterruptedException {
+        client().awaitClosed();
+    }
+
+    @Override
+    public void close() {
+        if (coordinator != null) {
+            coordinator.close();
+        }
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    private NioCoordinator coordinator() {
+        if (coordinator == null) {
+            throw new IllegalStateException("This process runs only workers");
+        }
+        return coordinator;
+    }
+
+    private NioWorkerClient client() {
+        if (client == null) {
+            throw new IllegalStateException("This process runs no workers");
+        }
+        return client;
+    }
+}
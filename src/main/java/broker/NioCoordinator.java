@@ -0,0 +1,463 @@
+package broker;
+
+import codec.MessageCodec;
+import model.ResultMessage;
+import model.TaskMessage;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+// Сервер координатора на одном потоке с Selector. Задачи продюсера ждут в очереди и раздаются
+// подключённым воркерам в аренду по их кредитам, по очереди между воркерами. Результаты приходят
+// по тому же соединению; обработчик результатов вызывается в отдельном потоке, чтобы не задерживать
+// сеть. Задачи воркера, который перестал слать кадры, задачи с истёкшей арендой и задачи, которые
+// воркер не смог обработать, возвращаются в начало очереди; повторный результат той же задачи
+// отбрасывается. Задача, отданная MAX_LEASES раз без результата, пропускается с ошибкой в журнале.
+final class NioCoordinator {
+    private record PendingTask(int id, byte[] encoded, String path, long offset, int length) {
+    }
+
+    private record Lease(PendingTask task, Connection connection, long deadline) {
+    }
+
+    // байты диапазона файла, которые ещё не ушли в сокет
+    private static final class FileSlice {
+        private final FileChannel file;
+        private long position;
+        private long remaining;
+
+        FileSlice(FileChannel file, long position, long remaining) {
+            this.file = file;
+            this.position = position;
+            this.remaining = remaining;
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer header = ByteBuffer.allocate(NioProtocol.HEADER);
+        private ByteBuffer body; // null, пока читается заголовок
+        private byte type;
+        private final ArrayDeque<Object> output = new ArrayDeque<>(); // ByteBuffer или FileSlice
+        private final Set<Integer> leased = new HashSet<>();
+        private int credits;
+        private long lastSeen = System.currentTimeMillis();
+
+        Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+    }
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final MessageCodec codec;
+    private final long heartbeatTimeoutMs;
+    private final long leaseTimeoutMs;
+    private final Thread loop;
+    private final ExecutorService resultExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nio-results");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Queue<PendingTask> submitted = new ConcurrentLinkedQueue<>();
+    // дальше — только поток селектора
+    private final ArrayDeque<PendingTask> pending = new ArrayDeque<>();
+    private final Map<Integer, Lease> leases = new HashMap<>();
+    private final Set<Integer> done = new HashSet<>();
+    private final Map<Integer, Integer> leaseCounts = new HashMap<>(); // задачи без результата
+    private final List<Connection> connections = new ArrayList<>();
+    private final Map<String, FileChannel> files = new HashMap<>();
+
+    private volatile Consumer<ResultMessage> resultHandler;
+    private volatile boolean running = true;
+
+    NioCoordinator(InetSocketAddress address, MessageCodec codec) throws IOException {
+        this(address, codec, NioProtocol.HEARTBEAT_TIMEOUT_MS, NioProtocol.LEASE_TIMEOUT_MS);
+    }
+
+    // короткие сроки нужны тестам
+    NioCoordinator(InetSocketAddress address, MessageCodec codec, long heartbeatTimeoutMs, long leaseTimeoutMs) throws IOException {
+        this.codec = codec;
+        this.heartbeatTimeoutMs = heartbeatTimeoutMs;
+        this.leaseTimeoutMs = leaseTimeoutMs;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        loop = new Thread(this::run, "nio-coordinator");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    void setResultHandler(Consumer<ResultMessage> handler) {
+        this.resultHandler = handler;
+    }
+
+    // задачи с диапазоном файла уходят байтами файла, остальные кодируются здесь, в потоке продюсера
+    void submit(TaskMessage task) throws IOException {
+        byte[] encoded = task.path != null ? null : codec.encodeTask(task);
+        long length = encoded != null ? encoded.length : 4L + task.length;
+
+        if (length >= NioProtocol.MAX_FRAME) {
+            throw new IOException("Task " + task.id + " is too large for one frame: " + length + " bytes");
+        }
+        submitted.add(new PendingTask(task.id, encoded, task.path, task.offset, task.length));
+        selector.wakeup();
+    }
+
+    void close() {
+        running = false;
+        selector.wakeup();
+
+        try {
+            loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        resultExecutor.shutdown();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select(NioProtocol.HEARTBEAT_MS);
+                long now = System.currentTimeMillis();
+
+                for (PendingTask task; (task = submitted.poll()) != null; ) {
+                    pending.addLast(task);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+
+                    try {
+                        if (key.isReadable()) {
+                            read(connection, now);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(connection);
+                        }
+                    } catch (IOException e) {
+                        drop(connection);
+                    }
+                }
+
+                expire(now);
+                dispatch(now);
+            }
+
+            for (Connection connection : new ArrayList<>(connections)) {
+                bye(connection);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                server.close();
+                selector.close();
+
+                for (FileChannel file : files.values()) {
+                    file.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connections.add(new Connection(channel));
+        }
+    }
+
+    private void read(Connection connection, long now) throws IOException {
+        while (true) {
+            ByteBuffer target = connection.body != null ? connection.body : connection.header;
+            int read = connection.channel.read(target);
+
+            if (read < 0) {
+                throw new IOException("Worker disconnected");
+            }
+            if (read > 0) {
+                connection.lastSeen = now;
+            }
+            if (target.hasRemaining()) {
+                return;
+            }
+
+            if (connection.body == null) {
+                connection.header.flip();
+                int length = NioProtocol.bodyLength(connection.header.getInt());
+                connection.type = connection.header.get();
+                connection.header.clear();
+                connection.body = ByteBuffer.allocate(length);
+
+                if (length > 0) {
+                    continue;
+                }
+            }
+
+            byte[] body = connection.body.array();
+            connection.body = null;
+            handle(connection, connection.type, body);
+        }
+    }
+
+    private void handle(Connection connection, byte type, byte[] body) throws IOException {
+        switch (type) {
+            case NioProtocol.CREDIT -> connection.credits += ByteBuffer.wrap(body).getInt();
+            case NioProtocol.RESULT -> {
+                ResultMessage result = codec.decodeResult(body);
+                int taskId = result.taskId;
+                connection.credits++;
+                connection.leased.remove(taskId);
+                leaseCounts.remove(taskId);
+
+                Lease lease = leases.remove(taskId);
+
+                if (lease != null) {
+                    lease.connection().leased.remove(taskId);
+                }
+                if (done.add(taskId)) {
+                    resultExecutor.execute(() -> resultHandler.accept(result));
+                }
+            }
+            case NioProtocol.FAILED -> {
+                int taskId = ByteBuffer.wrap(body).getInt();
+                connection.credits++;
+                connection.leased.remove(taskId);
+
+                Lease lease = leases.get(taskId);
+
+                // аренда могла истечь и перейти к другому воркеру
+                if (lease != null && lease.connection() == connection) {
+                    leases.remove(taskId);
+                    pending.addFirst(lease.task());
+                }
+            }
+            case NioProtocol.HEARTBEAT -> {
+            }
+            default -> throw new IOException("Unknown frame type " + (char) type);
+        }
+    }
+
+    private void expire(long now) {
+        for (Connection connection : new ArrayList<>(connections)) {
+            if (now - connection.lastSeen > heartbeatTimeoutMs) {
+                System.out.println("[NioCoordinator] Worker " + address(connection) + " timed out, its tasks are leased again");
+                drop(connection);
+            }
+        }
+
+        Iterator<Lease> iterator = leases.values().iterator();
+
+        while (iterator.hasNext()) {
+            Lease lease = iterator.next();
+
+            if (lease.deadline() < now) {
+                iterator.remove();
+                lease.connection().leased.remove(lease.task().id());
+                pending.addFirst(lease.task());
+            }
+        }
+    }
+
+    // по одной задаче каждому воркеру с кредитами, пока задачи или кредиты не кончатся
+    private void dispatch(long now) throws IOException {
+        boolean leased = true;
+
+        while (leased && !pending.isEmpty()) {
+            leased = false;
+
+            for (Connection connection : connections) {
+                if (connection.credits <= 0) {
+                    continue;
+                }
+
+                PendingTask task = nextPending();
+
+                if (task == null) {
+                    break;
+                }
+
+                lease(connection, task, now);
+                leased = true;
+            }
+        }
+
+        for (Connection connection : new ArrayList<>(connections)) {
+            try {
+                flush(connection);
+            } catch (IOException e) {
+                drop(connection);
+            }
+        }
+    }
+
+    private PendingTask nextPending() {
+        PendingTask task;
+
+        while ((task = pending.pollFirst()) != null) {
+            if (done.contains(task.id())) {
+                continue;
+            }
+
+            Integer leased = leaseCounts.get(task.id());
+
+            if (leased != null && leased >= NioProtocol.MAX_LEASES) {
+                leaseCounts.remove(task.id());
+                System.err.println("[NioCoordinator] Task " + task.id() + " was leased " + leased + " times without a result, skipping it");
+                continue;
+            }
+
+            return task;
+        }
+
+        return null;
+    }
+
+    private void lease(Connection connection, PendingTask task, long now) throws IOException {
+        connection.credits--;
+        connection.leased.add(task.id());
+        leases.put(task.id(), new Lease(task, connection, now + leaseTimeoutMs));
+        leaseCounts.merge(task.id(), 1, Integer::sum);
+
+        if (task.path() == null) {
+            connection.output.add(NioProtocol.header(NioProtocol.TASK, task.encoded().length));
+            connection.output.add(ByteBuffer.wrap(task.encoded()));
+            return;
+        }
+
+        FileChannel file = files.get(task.path());
+
+        if (file == null) {
+            file = FileChannel.open(Path.of(task.path()), StandardOpenOption.READ);
+            files.put(task.path(), file);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(NioProtocol.HEADER + 4);
+        header.putInt(1 + 4 + task.length()).put(NioProtocol.RANGE).putInt(task.id()).flip();
+        connection.output.add(header);
+        connection.output.add(new FileSlice(file, task.offset(), task.length()));
+    }
+
+    private void flush(Connection connection) throws IOException {
+        while (!connection.output.isEmpty()) {
+            Object next = connection.output.peekFirst();
+
+            if (next instanceof ByteBuffer buffer) {
+                connection.channel.write(buffer);
+
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+            } else {
+                FileSlice slice = (FileSlice) next;
+                long sent = slice.file.transferTo(slice.position, slice.remaining, connection.channel);
+                slice.position += sent;
+                slice.remaining -= sent;
+
+                if (slice.remaining > 0) {
+                    break;
+                }
+            }
+
+            connection.output.pollFirst();
+        }
+
+        if (connection.key.isValid()) {
+            connection.key.interestOps(connection.output.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void drop(Connection connection) {
+        connections.remove(connection);
+        connection.key.cancel();
+
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+        }
+
+        for (int taskId : connection.leased) {
+            Lease lease = leases.remove(taskId);
+
+            if (lease != null) {
+                pending.addFirst(lease.task());
+            }
+        }
+
+        connection.leased.clear();
+    }
+
+    // последний кадр воркеру уходит уже в блокирующем режиме
+    private void bye(Connection connection) {
+        try {
+            connection.key.cancel();
+            selector.selectNow();
+            connection.channel.configureBlocking(true);
+            connection.output.add(NioProtocol.header(NioProtocol.BYE, 0));
+            flush(connection);
+            connection.channel.close();
+        } catch (IOException e) {
+        }
+    }
+
+    private static String address(Connection connection) {
+        try {
+            return String.valueOf(connection.channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "?";
+        }
+    }
+}
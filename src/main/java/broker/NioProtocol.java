@@ -0,0 +1,52 @@
+package broker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Протокол координатора и удалённых воркеров поверх TCP. Кадр: длина int (тип и тело), тип byte, тело.
+// Воркер выдаёт кредиты (CREDIT), координатор отдаёт задачи в аренду, пока кредиты есть; каждый
+// результат или отказ (FAILED) возвращает кредит. Диапазон файла (RANGE) идёт без кодека: номер задачи,
+// затем байты файла, которые координатор отправляет через FileChannel.transferTo.
+final class NioProtocol {
+    static final byte TASK = 'T';       // координатор -> воркер: задача в кодеке
+    static final byte RANGE = 'M';      // координатор -> воркер: номер задачи int и байты секции
+    static final byte BYE = 'B';        // координатор -> воркер: работа закончена
+    static final byte RESULT = 'R';     // воркер -> координатор: результат в кодеке
+    static final byte CREDIT = 'C';     // воркер -> координатор: int — сколько ещё задач можно выдать
+    static final byte FAILED = 'F';     // воркер -> координатор: int — номер задачи, которую он не обработал
+    static final byte HEARTBEAT = 'H';  // воркер -> координатор: воркер жив
+
+    static final int HEADER = 5;
+    // кадр длиннее считается испорченным: длину присылает другая сторона, верить ей на слово нельзя
+    static final int MAX_FRAME = 64 * 1024 * 1024;
+    static final long HEARTBEAT_MS = 1_000;
+    // воркер, от которого столько нет кадров, считается упавшим, его задачи отдаются другим
+    static final long HEARTBEAT_TIMEOUT_MS = 5_000;
+    // задача, результата которой нет так долго, отдаётся ещё раз; первый пришедший результат побеждает
+    static final long LEASE_TIMEOUT_MS = 60_000;
+    // задача, которую столько раз отдавали без результата, больше не отдаётся
+    static final int MAX_LEASES = 3;
+
+    private NioProtocol() {
+    }
+
+    // длина из заголовка кадра (тип и тело) без типа
+    static int bodyLength(int frameLength) throws IOException {
+        if (frameLength < 1 || frameLength > MAX_FRAME) {
+            throw new IOException("Malformed frame length " + frameLength);
+        }
+        return frameLength - 1;
+    }
+
+    static ByteBuffer header(byte type, int bodyLength) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(bodyLength + 1).put(type).flip();
+        return header;
+    }
+
+    static ByteBuffer frame(byte type, int value) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER + 4);
+        frame.putInt(5).put(type).putInt(value).flip();
+        return frame;
+    }
+}
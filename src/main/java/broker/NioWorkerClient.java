@@ -0,0 +1,167 @@
+package broker;
+
+import codec.MessageCodec;
+import model.TaskMessage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Удалённый воркер: одно блокирующее соединение с координатором. Поток чтения складывает задачи
+// в локальную очередь, каждая подписка — свой поток, который их обрабатывает; результаты из разных
+// потоков пишутся в сокет по очереди. Отдельный поток шлёт HEARTBEAT. Соединение закрывается
+// по BYE координатора или при обрыве — тогда же возвращается awaitClosed.
+final class NioWorkerClient {
+    private static final int READ_BUFFER = 64 * 1024;
+    private static final long CONNECT_RETRY_MS = 100;
+    private static final long POLL_MS = 100;
+
+    private final SocketChannel channel;
+    private final MessageCodec codec;
+    private final int prefetch;
+    private final BlockingQueue<TaskMessage> tasks = new LinkedBlockingQueue<>();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private final Object writeLock = new Object();
+    private int subscriptions;
+
+    // ждёт, пока координатор начнёт принимать соединения
+    NioWorkerClient(InetSocketAddress address, MessageCodec codec, int prefetch) throws IOException, InterruptedException {
+        this.codec = codec;
+        this.prefetch = Math.max(1, prefetch);
+        this.channel = connect(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        start("nio-reader", this::readLoop);
+        start("nio-heartbeat", this::heartbeatLoop);
+    }
+
+    private static SocketChannel connect(InetSocketAddress address) throws IOException, InterruptedException {
+        while (true) {
+            try {
+                return SocketChannel.open(address);
+            } catch (ConnectException e) {
+                Thread.sleep(CONNECT_RETRY_MS);
+            }
+        }
+    }
+
+    // обработчик вызывается в потоке подписки; координатору сразу уходит её запас кредитов
+    void subscribe(Consumer<TaskMessage> handler) throws IOException {
+        start("nio-tasks-" + subscriptions++, () -> {
+            try {
+                while (closed.getCount() > 0 || !tasks.isEmpty()) {
+                    TaskMessage task = tasks.poll(POLL_MS, TimeUnit.MILLISECONDS);
+
+                    if (task != null) {
+                        handler.accept(task);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        send(NioProtocol.frame(NioProtocol.CREDIT, prefetch));
+    }
+
+    void sendResult(byte[] encoded) throws IOException {
+        send(NioProtocol.header(NioProtocol.RESULT, encoded.length), ByteBuffer.wrap(encoded));
+    }
+
+    void sendFailure(int taskId) throws IOException {
+        send(NioProtocol.frame(NioProtocol.FAILED, taskId));
+    }
+
+    void awaitClosed() throws InterruptedException {
+        closed.await();
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void send(ByteBuffer... buffers) throws IOException {
+        synchronized (writeLock) {
+            long remaining = 0;
+
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+        }
+    }
+
+    private void readLoop() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER))) {
+            while (true) {
+                int length = NioProtocol.bodyLength(in.readInt());
+                byte type = in.readByte();
+
+                switch (type) {
+                    case NioProtocol.TASK -> {
+                        byte[] body = new byte[length];
+                        in.readFully(body);
+                        tasks.add(codec.decodeTask(body));
+                    }
+                    case NioProtocol.RANGE -> {
+                        if (length < 4) {
+                            throw new IOException("Malformed range frame");
+                        }
+                        int id = in.readInt();
+                        byte[] utf8 = new byte[length - 4];
+                        in.readFully(utf8);
+                        tasks.add(new TaskMessage(id, utf8));
+                    }
+                    case NioProtocol.BYE -> {
+                        return;
+                    }
+                    default -> throw new IOException("Unknown frame type " + (char) type);
+                }
+            }
+        } catch (EOFException e) {
+            System.out.println("[NioWorkerClient] Coordinator closed the connection");
+        } catch (IOException e) {
+            if (channel.isOpen()) {
+                e.printStackTrace();
+            }
+        } finally {
+            closed.countDown();
+        }
+    }
+
+    private void heartbeatLoop() {
+        try {
+            while (!closed.await(NioProtocol.HEARTBEAT_MS, TimeUnit.MILLISECONDS)) {
+                send(NioProtocol.header(NioProtocol.HEARTBEAT, 0));
+            }
+        } catch (IOException e) {
+            // соединение оборвано — это заметит поток чтения
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -1,6 +1,7 @@
 package broker;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import codec.JsonCodec;
+import codec.MessageCodec;
 import com.rabbitmq.client.*;
 import model.ResultMessage;
 import model.TaskMessage;
@@ -10,10 +11,14 @@ import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 public class RabbitMqBroker implements MessageBroker {
+    private static final int TASK_PREFETCH = 1;
+    private static final int RESULT_PREFETCH = 64;
+    private static final int TASK_BATCH = 64;
+
     private final ConnectionFactory connectionFactory;
     private Connection connection;
     private Channel channel;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final MessageCodec codec;
 
     private final String TASK_QUEUE = "tasks";
     private final String RESULT_QUEUE = "results";
@@ -23,7 +28,16 @@ public class RabbitMqBroker implements MessageBroker {
 
     private volatile boolean running = true;
 
+    private final FlowControl taskCredits;
+    private RabbitPublisher publisher; // общий channel только для подписок: публикуют из разных потоков
+
     public RabbitMqBroker(String host, int port, String user, String password) throws IOException, TimeoutException {
+        this(host, port, user, password, Long.MAX_VALUE, new JsonCodec());
+    }
+
+    public RabbitMqBroker(String host, int port, String user, String password, long memoryBudgetBytes, MessageCodec codec) throws IOException, TimeoutException {
+        taskCredits = new FlowControl(memoryBudgetBytes);
+        this.codec = codec;
         connectionFactory = new ConnectionFactory();
         connectionFactory.setHost(host);
         connectionFactory.setPort(port);
@@ -35,6 +49,7 @@ public class RabbitMqBroker implements MessageBroker {
     private void connect() throws IOException, TimeoutException {
         connection = connectionFactory.newConnection();
         channel = connection.createChannel();
+        publisher = new RabbitPublisher(connection, TASK_BATCH);
 
         boolean durable = true;
         channel.queueDeclare(
@@ -46,15 +61,18 @@ public class RabbitMqBroker implements MessageBroker {
         );
         channel.queueDeclare(RESULT_QUEUE, durable, false, false, null);
 
+        // prefetch задаётся для каждого следующего подписчика канала
+        channel.basicQos(TASK_PREFETCH);
         channel.basicConsume(
                 TASK_QUEUE,
                 false,  // false == manual acknowledgment
                 this::handleTaskDelivery,
                 consumerTag -> System.out.println("Consumer was cancelled: " + consumerTag)
         );
+        channel.basicQos(RESULT_PREFETCH);
         channel.basicConsume(
                 RESULT_QUEUE,
-                true,
+                false,
                 this::handleResultDelivery,
                 consumerTag -> System.out.println("Consumer was cancelled: " + consumerTag)
         );
@@ -66,7 +84,7 @@ public class RabbitMqBroker implements MessageBroker {
 
         try {
             byte[] body = delivery.getBody();
-            TaskMessage taskMessage = mapper.readValue(body, TaskMessage.class);
+            TaskMessage taskMessage = codec.decodeTask(body);
             taskHandler.accept(taskMessage);
 
             channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
@@ -84,16 +102,50 @@ public class RabbitMqBroker implements MessageBroker {
 
         try {
             byte[] body = delivery.getBody();
-            ResultMessage resultMessage = mapper.readValue(body, ResultMessage.class);
-            resultHandler.accept(resultMessage);
+            ResultMessage resultMessage = codec.decodeResult(body);
+
+            try {
+                resultHandler.accept(resultMessage);
+            } finally {
+                taskCredits.release(resultMessage.taskId);
+            }
+        } catch (IOException e) {
+        }
+
+        try {
+            channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
         } catch (IOException e) {
         }
     }
 
     @Override
     public void publishTask(TaskMessage taskMessage) throws Exception {
-        byte[] data = mapper.writeValueAsBytes(taskMessage);
-        channel.basicPublish("", TASK_QUEUE, null, data);
+        // задачи из неотправленной пачки держат кредиты — отправляем её, прежде чем ждать возврата
+        if (!taskCredits.tryAcquire(taskMessage.id, taskMessage.sizeBytes())) {
+            publisher.flush();
+            taskCredits.acquire(taskMessage.id, taskMessage.sizeBytes());
+        }
+
+        send(taskMessage);
+    }
+
+    @Override
+    public boolean tryPublishTask(TaskMessage taskMessage) throws Exception {
+        if (!taskCredits.tryAcquire(taskMessage.id, taskMessage.sizeBytes())) {
+            return false;
+        }
+
+        send(taskMessage);
+        return true;
+    }
+
+    private void send(TaskMessage taskMessage) throws IOException, InterruptedException {
+        publisher.publish(TASK_QUEUE, codec.encodeTask(taskMessage), true);
+    }
+
+    @Override
+    public void flush() throws Exception {
+        publisher.flush();
     }
 
     @Override
@@ -103,8 +155,7 @@ public class RabbitMqBroker implements MessageBroker {
 
     @Override
     public void publishResult(ResultMessage resultMessage) throws Exception {
-        byte[] data = mapper.writeValueAsBytes(resultMessage);
-        channel.basicPublish("", RESULT_QUEUE, null, data);
+        publisher.publish(RESULT_QUEUE, codec.encodeResult(resultMessage), false);
     }
 
     @Override
@@ -112,9 +163,15 @@ public class RabbitMqBroker implements MessageBroker {
         this.resultHandler = handler;
     }
 
+    @Override
+    public FlowControl taskCredits() {
+        return taskCredits;
+    }
+
     @Override
     public void close() {
         running = false;
+        publisher.close();
 
         try {
             if (channel != null && channel.isOpen()) {
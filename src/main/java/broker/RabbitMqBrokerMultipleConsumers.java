@@ -1,58 +1,129 @@
 package broker;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import codec.JsonCodec;
+import codec.MessageCodec;
 import com.rabbitmq.client.*;
 import model.ResultMessage;
 import model.TaskMessage;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 
+// Задачи ограничены кредитами на стороне продюсера: сообщения в очереди и у воркеров занимают не больше
+// бюджета памяти. Результаты подтверждаются после обработки, и у подписчика их не больше RESULT_PREFETCH.
+// Очереди объявляются один раз при подключении; публикация — через RabbitPublisher: канал на поток,
+// задачи пачками по TASK_BATCH, результаты сразу, подтверждения асинхронно.
+// Задача подтверждается, только когда RabbitMQ подтвердил публикацию её результата: если воркер упадёт
+// или результат потеряется, RabbitMQ отдаст задачу другому; задачу, которую воркер не обработал (taskFailed),
+// брокер сам возвращает в очередь. Подписчик получает до taskPrefetch задач наперёд, чтобы не ждать RabbitMQ между задачами.
 public class RabbitMqBrokerMultipleConsumers implements MessageBroker {
-    private final ConnectionFactory connectionFactory;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private static final int RESULT_PREFETCH = 64;
+    private static final int TASK_BATCH = 64;
+    private static final int DEFAULT_TASK_PREFETCH = 4;
+
+    private final MessageCodec codec;
     private final Connection connection;
 
     private final String TASK_QUEUE = "tasks";
     private final String RESULT_QUEUE = "results";
 
+    private final FlowControl taskCredits;
+    private final RabbitPublisher publisher;
+    private final int taskPrefetch;
+    // задача, ещё не подтверждённая в RabbitMQ, -> подписка и номер доставки
+    private final Map<Integer, PendingAck> pendingAcks = new ConcurrentHashMap<>();
+
+    private record PendingAck(TaskAcks acks, long deliveryTag) {
+    }
+
     public RabbitMqBrokerMultipleConsumers(String host, int port, String user, String password) throws Exception {
-        connectionFactory = new ConnectionFactory();
+        this(host, port, user, password, Long.MAX_VALUE, new JsonCodec(), DEFAULT_TASK_PREFETCH);
+    }
+
+    public RabbitMqBrokerMultipleConsumers(String host, int port, String user, String password, long memoryBudgetBytes, MessageCodec codec, int taskPrefetch) throws Exception {
+        this(connect(host, port, user, password), memoryBudgetBytes, codec, taskPrefetch);
+    }
+
+    // соединение извне — для тестов
+    RabbitMqBrokerMultipleConsumers(Connection connection, long memoryBudgetBytes, MessageCodec codec, int taskPrefetch) throws Exception {
+        taskCredits = new FlowControl(memoryBudgetBytes);
+        this.codec = codec;
+        this.taskPrefetch = taskPrefetch;
+        this.connection = connection;
+
+        try (Channel channel = connection.createChannel()) {
+            channel.queueDeclare(TASK_QUEUE, true, false, false, null);
+            channel.queueDeclare(RESULT_QUEUE, true, false, false, null);
+        }
+
+        publisher = new RabbitPublisher(connection, TASK_BATCH);
+    }
+
+    private static Connection connect(String host, int port, String user, String password) throws Exception {
+        ConnectionFactory connectionFactory = new ConnectionFactory();
         connectionFactory.setHost(host);
         connectionFactory.setPort(port);
         connectionFactory.setUsername(user);
         connectionFactory.setPassword(password);
-        connection = connectionFactory.newConnection();
+        return connectionFactory.newConnection();
     }
 
     @Override
     public void publishTask(TaskMessage taskMessage) throws Exception {
-        try (Channel channel = connection.createChannel()) {
-            channel.queueDeclare(TASK_QUEUE, true, false, false, null);
-            byte[] data = mapper.writeValueAsBytes(taskMessage);
-            channel.basicPublish("", TASK_QUEUE, null, data);
+        // задачи из неотправленной пачки держат кредиты — отправляем её, прежде чем ждать возврата
+        if (!taskCredits.tryAcquire(taskMessage.id, taskMessage.sizeBytes())) {
+            publisher.flush();
+            taskCredits.acquire(taskMessage.id, taskMessage.sizeBytes());
         }
+
+        send(taskMessage);
+    }
+
+    @Override
+    public boolean tryPublishTask(TaskMessage taskMessage) throws Exception {
+        if (!taskCredits.tryAcquire(taskMessage.id, taskMessage.sizeBytes())) {
+            return false;
+        }
+
+        send(taskMessage);
+        return true;
+    }
+
+    private void send(TaskMessage taskMessage) throws Exception {
+        publisher.publish(TASK_QUEUE, codec.encodeTask(taskMessage), true);
+    }
+
+    @Override
+    public void flush() throws Exception {
+        publisher.flush();
     }
 
     @Override
     public void subscribeTasks(Consumer<TaskMessage> handler) throws Exception {
         Channel channel = connection.createChannel();
+        TaskAcks acks = new TaskAcks(channel, taskPrefetch);
 
-        channel.queueDeclare(TASK_QUEUE, true, false, false, null);
-        channel.basicQos(1); // 1 сообщение за раз
+        channel.basicQos(taskPrefetch);
 
         DeliverCallback handleDelivery = (consumerTag, delivery) -> {
+            long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+            acks.delivered(deliveryTag);
+
             try {
                 byte[] body = delivery.getBody();
-                TaskMessage taskMessage = mapper.readValue(body, TaskMessage.class);
-                handler.accept(taskMessage);
+                TaskMessage taskMessage = codec.decodeTask(body);
 
-                channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+                pendingAcks.put(taskMessage.id, new PendingAck(acks, deliveryTag));
+                handler.accept(taskMessage);
             } catch (Exception e) {
                 System.err.println("[RabbitMqBrokerMultipleConsumers] nack для сообщения: " + e.getMessage());
-                channel.basicNack(delivery.getEnvelope().getDeliveryTag(), false, true);
+                acks.reject(deliveryTag);
             }
         };
 
@@ -62,10 +133,19 @@ public class RabbitMqBrokerMultipleConsumers implements MessageBroker {
 
     @Override
     public void publishResult(ResultMessage resultMessage) throws Exception {
-        try (Channel channel = connection.createChannel()) {
-            channel.queueDeclare(RESULT_QUEUE, true, false, false, null);
-            byte[] data = mapper.writeValueAsBytes(resultMessage);
-            channel.basicPublish("", RESULT_QUEUE, null, data);
+        PendingAck pending = pendingAcks.remove(resultMessage.taskId);
+
+        publisher.publish(RESULT_QUEUE, codec.encodeResult(resultMessage), false,
+                pending == null ? null : () -> pending.acks().completed(pending.deliveryTag()));
+    }
+
+    // задача без результата возвращается в очередь (nack), иначе её номер не дал бы подтверждать следующие
+    @Override
+    public void taskFailed(int taskId) throws Exception {
+        PendingAck pending = pendingAcks.remove(taskId);
+
+        if (pending != null) {
+            pending.acks().reject(pending.deliveryTag());
         }
     }
 
@@ -73,23 +153,37 @@ public class RabbitMqBrokerMultipleConsumers implements MessageBroker {
     public void subscribeResults(Consumer<ResultMessage> handler) throws Exception {
         Channel channel = connection.createChannel();
 
-        channel.queueDeclare(RESULT_QUEUE, true, false, false, null);
+        channel.basicQos(RESULT_PREFETCH);
 
         DeliverCallback handleDelivery = (consumerTag, delivery) -> {
             try {
                 byte[] body = delivery.getBody();
-                ResultMessage resultMessage = mapper.readValue(body, ResultMessage.class);
-                handler.accept(resultMessage);
+                ResultMessage resultMessage = codec.decodeResult(body);
+
+                try {
+                    handler.accept(resultMessage);
+                } finally {
+                    taskCredits.release(resultMessage.taskId);
+                }
             } catch (Exception e) {
             }
+
+            channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
         };
 
-        channel.basicConsume(RESULT_QUEUE, true, handleDelivery, consumerTag -> System.out.println("Consumer was cancelled: " + consumerTag));
+        channel.basicConsume(RESULT_QUEUE, false, handleDelivery, consumerTag -> System.out.println("Consumer was cancelled: " + consumerTag));
         System.out.println("[RabbitMqBrokerMultipleConsumers] Новая подписка на очередь результатов");
     }
 
+    @Override
+    public FlowControl taskCredits() {
+        return taskCredits;
+    }
+
     @Override
     public void close() {
+        publisher.close();
+
         try {
             if (connection != null && connection.isOpen()) {
                 connection.close();
@@ -98,4 +192,55 @@ public class RabbitMqBrokerMultipleConsumers implements MessageBroker {
             e.printStackTrace();
         }
     }
+
+    // Подтверждения одной подписки. Задачи завершаются не по порядку, а ack с multiple = true подтверждает
+    // все номера до указанного, поэтому подтверждается только непрерывное начало завершённых доставок —
+    // пачкой, когда оно выросло на четверть окна или когда незавершённых не осталось. Номер в ack должен
+    // быть ещё не закрыт: отклонённые (nack) доставки закрыты сразу, и ack указывает на номер ниже них.
+    // Канал подписки воркеры используют только здесь и под блокировкой.
+    private static final class TaskAcks {
+        private final Channel channel;
+        private final int batch;
+        private final NavigableSet<Long> inProgress = new TreeSet<>();
+        private final NavigableSet<Long> rejected = new TreeSet<>(); // выше lastAcked
+        private long lastDelivered;
+        private long lastAcked;
+
+        TaskAcks(Channel channel, int prefetch) {
+            this.channel = channel;
+            this.batch = Math.max(1, prefetch / 4);
+        }
+
+        synchronized void delivered(long deliveryTag) {
+            inProgress.add(deliveryTag);
+            lastDelivered = Math.max(lastDelivered, deliveryTag);
+        }
+
+        synchronized void completed(long deliveryTag) throws IOException {
+            inProgress.remove(deliveryTag);
+
+            long done = inProgress.isEmpty() ? lastDelivered : inProgress.first() - 1;
+
+            if (done > lastAcked && (done - lastAcked >= batch || inProgress.isEmpty())) {
+                long last = done;
+
+                while (rejected.contains(last)) {
+                    last--;
+                }
+                if (last > lastAcked) {
+                    channel.basicAck(last, true);
+                }
+
+                rejected.headSet(done, true).clear();
+                lastAcked = done;
+            }
+        }
+
+        // не разобранная задача возвращается в очередь
+        synchronized void reject(long deliveryTag) throws IOException {
+            channel.basicNack(deliveryTag, false, true);
+            rejected.add(deliveryTag);
+            completed(deliveryTag);
+        }
+    }
 }
@@ -0,0 +1,218 @@
+package broker;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Публикация в RabbitMQ из многих потоков. Каналы не потокобезопасны, поэтому у каждого потока свой канал
+// в режиме подтверждений, открытый один раз на всё время работы. Сообщения уходят подряд, без ожидания
+// ответа на каждое: подтверждения приходят асинхронно и снимают сообщения из списка неподтверждённых.
+// Отклонённые (nack) сообщения публикует заново отдельный поток через свой канал — отправитель мог
+// уже закончить работу; он же выполняет действия, переданные с сообщением, когда оно подтверждено.
+// Неподтверждённых на канале не больше MAX_UNCONFIRMED, дальше отправитель ждёт.
+// Сообщения с batch = true копятся в пачке потока и уходят, когда пачка заполнится, или по flush.
+class RabbitPublisher {
+    private static final int MAX_UNCONFIRMED = 1024;
+    private static final long CLOSE_TIMEOUT_MS = 30_000;
+    private static final long CLOSE_POLL_MS = 10;
+
+    // действие после подтверждения сообщения в RabbitMQ
+    interface OnConfirm {
+        void run() throws IOException;
+    }
+
+    private record Message(String queue, byte[] body, OnConfirm onConfirm) {
+    }
+
+    private final Connection connection;
+    private final int batchSize;
+    private final List<PublishChannel> channels = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<PublishChannel> threadChannel = new ThreadLocal<>();
+    // в потоке соединения, где приходят подтверждения, ничего не отправляем — он же читает ответы
+    private final ExecutorService confirmActions = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rabbit-confirms");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger pendingActions = new AtomicInteger();
+
+    RabbitPublisher(Connection connection, int batchSize) {
+        this.connection = connection;
+        this.batchSize = batchSize;
+    }
+
+    void publish(String queue, byte[] body, boolean batch) throws IOException, InterruptedException {
+        publish(queue, body, batch, null);
+    }
+
+    // onConfirm выполняется, когда RabbitMQ подтвердит сообщение; после nack — после подтверждения повтора
+    void publish(String queue, byte[] body, boolean batch, OnConfirm onConfirm) throws IOException, InterruptedException {
+        PublishChannel channel = channel();
+
+        synchronized (channel.batch) {
+            channel.batch.add(new Message(queue, body, onConfirm));
+
+            if (!batch || channel.batch.size() >= batchSize) {
+                channel.send();
+            }
+        }
+    }
+
+    // отправляет пачку текущего потока
+    void flush() throws IOException, InterruptedException {
+        PublishChannel channel = threadChannel.get();
+
+        if (channel != null) {
+            channel.send();
+        }
+    }
+
+    // вызывается, когда публикующие потоки уже остановлены: остатки пачек отправляются отсюда,
+    // затем ждём подтверждения всего отправленного, включая повторы отклонённого, и действий по подтверждениям
+    void close() {
+        try {
+            for (PublishChannel channel : channels) {
+                channel.send();
+            }
+
+            // повтор отклонённого ещё может быть в очереди потока подтверждений, а канал для него — не открыт
+            long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MS;
+
+            while (true) {
+                boolean confirmed = true;
+
+                for (PublishChannel channel : channels) {
+                    confirmed &= channel.channel.waitForConfirms(Math.max(1, deadline - System.currentTimeMillis()));
+                }
+
+                if (confirmed && pendingActions.get() == 0) {
+                    break;
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    System.err.println("[RabbitPublisher] Not all messages were confirmed before close");
+                    break;
+                }
+                Thread.sleep(CLOSE_POLL_MS);
+            }
+
+            confirmActions.shutdownNow();
+
+            for (PublishChannel channel : channels) {
+                channel.channel.close();
+            }
+        } catch (IOException | TimeoutException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void republish(Message message) {
+        pendingActions.incrementAndGet();
+        confirmActions.execute(() -> {
+            try {
+                publish(message.queue(), message.body(), false, message.onConfirm());
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                pendingActions.decrementAndGet();
+            }
+        });
+    }
+
+    private void confirmed(Message message) {
+        pendingActions.incrementAndGet();
+        confirmActions.execute(() -> {
+            try {
+                message.onConfirm().run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                pendingActions.decrementAndGet();
+            }
+        });
+    }
+
+    private PublishChannel channel() throws IOException {
+        PublishChannel channel = threadChannel.get();
+
+        if (channel == null) {
+            channel = new PublishChannel(connection.createChannel());
+            channels.add(channel);
+            threadChannel.set(channel);
+        }
+
+        return channel;
+    }
+
+    private final class PublishChannel {
+        private final Channel channel;
+        private final List<Message> batch = new ArrayList<>();
+        private final ConcurrentSkipListMap<Long, Message> unconfirmed = new ConcurrentSkipListMap<>();
+        private int unconfirmedCount; // под this
+
+        PublishChannel(Channel channel) throws IOException {
+            this.channel = channel;
+
+            channel.confirmSelect();
+            channel.addConfirmListener((tag, multiple) -> confirm(tag, multiple, false), (tag, multiple) -> confirm(tag, multiple, true));
+        }
+
+        // под batch: close отправляет остатки из своего потока, пока поток повторов ещё может публиковать
+        void send() throws IOException, InterruptedException {
+            synchronized (batch) {
+                for (Message queued : batch) {
+                    publish(queued);
+                }
+
+                batch.clear();
+            }
+        }
+
+        private void publish(Message message) throws IOException, InterruptedException {
+            synchronized (this) {
+                while (unconfirmedCount >= MAX_UNCONFIRMED) {
+                    wait();
+                }
+                unconfirmedCount++;
+            }
+
+            unconfirmed.put(channel.getNextPublishSeqNo(), message);
+            channel.basicPublish("", message.queue(), null, message.body());
+        }
+
+        // multiple — подтверждены все номера до tag включительно
+        private void confirm(long tag, boolean multiple, boolean nack) {
+            Map<Long, Message> confirmed = multiple ? unconfirmed.headMap(tag, true) : unconfirmed.subMap(tag, true, tag, true);
+            int count = 0;
+
+            for (Message message : confirmed.values()) {
+                if (nack) {
+                    republish(message);
+                } else if (message.onConfirm() != null) {
+                    confirmed(message);
+                }
+                count++;
+            }
+
+            confirmed.clear();
+
+            synchronized (this) {
+                unconfirmedCount -= count;
+                notifyAll();
+            }
+        }
+    }
+}
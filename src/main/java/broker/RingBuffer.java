@@ -0,0 +1,94 @@
+package broker;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Ограниченная очередь на заранее выделенных ячейках для многих писателей и многих читателей без блокировок.
+// У каждой ячейки свой номер-барьер: ячейка свободна для записи на позиции pos, когда её номер равен pos,
+// и готова к чтению, когда он равен pos + 1; прочитанная ячейка получает номер pos + capacity — следующий
+// круг. Позицию занимают CAS-ом на tail или head, поэтому в ячейку пишет и из неё читает ровно один поток.
+// Читатель забирает одним CAS-ом сразу пачку подряд готовых ячеек.
+class RingBuffer<T> {
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int capacity;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    RingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring buffer capacity must be a power of two: " + capacity);
+        }
+
+        this.items = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // false, если все ячейки заняты
+    boolean offer(T item) {
+        long position = tail.get();
+
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items[index] = item;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    // до batch.length готовых элементов в batch по порядку; 0, если готовых нет
+    @SuppressWarnings("unchecked")
+    int drain(T[] batch) {
+        long position = head.get();
+
+        while (true) {
+            int count = 0;
+
+            while (count < batch.length && sequences.get((int) (position + count) & mask) == position + count + 1) {
+                count++;
+            }
+
+            if (count == 0) {
+                long current = head.get();
+
+                if (current == position) {
+                    return 0;
+                }
+
+                position = current;
+                continue;
+            }
+
+            if (head.compareAndSet(position, position + count)) {
+                for (int i = 0; i < count; i++) {
+                    int index = (int) (position + i) & mask;
+                    batch[i] = (T) items[index];
+                    items[index] = null;
+                    sequences.set(index, position + i + capacity);
+                }
+                return count;
+            }
+
+            position = head.get();
+        }
+    }
+}
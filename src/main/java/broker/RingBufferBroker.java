@@ -0,0 +1,152 @@
+package broker;
+
+import config.AppConfig.WaitStrategy;
+import model.ResultMessage;
+import model.TaskMessage;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Брокер внутри процесса на двух кольцевых буферах. Каждая подписка на задачи — свой поток, который
+// забирает задачи по одной прямо из буфера и вызывает обработчик у себя, без очереди диспетчера
+// и пула воркера; результаты агрегатор забирает пачками. Пустой или полный буфер ожидается по стратегии: SPIN — только onSpinWait,
+// YIELD — затем Thread.yield, PARK — затем короткий parkNanos. Кредиты задач — как у InMemoryBroker.
+public class RingBufferBroker implements MessageBroker {
+    private static final int TASK_CAPACITY = 1024;
+    private static final int RESULT_CAPACITY = 1024;
+    // задача долгая: пачка задач досталась бы одному потоку, пока остальные простаивают
+    private static final int TASK_BATCH = 1;
+    private static final int RESULT_BATCH = 64;
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final RingBuffer<TaskMessage> tasks = new RingBuffer<>(TASK_CAPACITY);
+    private final RingBuffer<ResultMessage> results = new RingBuffer<>(RESULT_CAPACITY);
+    private final FlowControl taskCredits;
+    private final WaitStrategy waitStrategy;
+    private final List<Thread> consumers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running = true;
+
+    public RingBufferBroker(WaitStrategy waitStrategy) {
+        this(waitStrategy, Long.MAX_VALUE);
+    }
+
+    public RingBufferBroker(WaitStrategy waitStrategy, long memoryBudgetBytes) {
+        this.waitStrategy = waitStrategy;
+        this.taskCredits = new FlowControl(memoryBudgetBytes);
+    }
+
+    @Override
+    public void publishTask(TaskMessage taskMessage) throws Exception {
+        taskCredits.acquire(taskMessage.id, taskMessage.sizeBytes());
+        put(tasks, taskMessage);
+    }
+
+    @Override
+    public boolean tryPublishTask(TaskMessage taskMessage) throws Exception {
+        if (!taskCredits.tryAcquire(taskMessage.id, taskMessage.sizeBytes())) {
+            return false;
+        }
+        if (!tasks.offer(taskMessage)) {
+            taskCredits.release(taskMessage.id);
+            return false;
+        }
+
+        return true;
+    }
+
+    // обработчик вызывается в потоке подписки
+    @Override
+    public void subscribeTasks(Consumer<TaskMessage> handler) {
+        startConsumer("ring-tasks-" + consumers.size(), tasks, new TaskMessage[TASK_BATCH], handler);
+    }
+
+    @Override
+    public void publishResult(ResultMessage resultMessage) throws Exception {
+        put(results, resultMessage);
+    }
+
+    @Override
+    public void subscribeResults(Consumer<ResultMessage> handler) {
+        startConsumer("ring-results", results, new ResultMessage[RESULT_BATCH], result -> {
+            try {
+                handler.accept(result);
+            } finally {
+                taskCredits.release(result.taskId);
+            }
+        });
+    }
+
+    @Override
+    public boolean callsHandlerOnSubscriptionThread() {
+        return true;
+    }
+
+    @Override
+    public FlowControl taskCredits() {
+        return taskCredits;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+
+        for (Thread consumer : consumers) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private <T> void put(RingBuffer<T> ring, T item) throws InterruptedException {
+        for (int idle = 0; !ring.offer(item); idle++) {
+            if (!running || Thread.interrupted()) {
+                throw new InterruptedException("Ring buffer broker is closed");
+            }
+            idle(idle);
+        }
+    }
+
+    private <T> void startConsumer(String name, RingBuffer<T> ring, T[] batch, Consumer<T> handler) {
+        Thread consumer = new Thread(() -> {
+            int idle = 0;
+
+            while (running) {
+                int count = ring.drain(batch);
+
+                if (count == 0) {
+                    idle(idle++);
+                    continue;
+                }
+
+                idle = 0;
+
+                for (int i = 0; i < count; i++) {
+                    T item = batch[i];
+                    batch[i] = null;
+
+                    try {
+                        handler.accept(item);
+                    } catch (Exception e) {
+                    }
+                }
+            }
+        }, name);
+
+        consumer.setDaemon(true);
+        consumers.add(consumer);
+        consumer.start();
+    }
+
+    private void idle(int idle) {
+        if (idle < SPINS || waitStrategy == WaitStrategy.SPIN) {
+            Thread.onSpinWait();
+        } else if (idle < SPINS + YIELDS || waitStrategy == WaitStrategy.YIELD) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+}
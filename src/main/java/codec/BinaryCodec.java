@@ -0,0 +1,307 @@
+package codec;
+
+import model.ResultMessage;
+import model.TaskMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Компактный двоичный формат. Первый байт — вид сообщения, дальше поля в фиксированном порядке:
+// целые — varint (знаковые — zigzag), текст, байты и массивы int — длина varint и содержимое, где длина 0 —
+// null, а иначе длина + 1. Предложения секции записаны разностями соседних значений: длины
+// отсортированы, поэтому разности почти всегда в один байт.
+public class BinaryCodec implements MessageCodec {
+    private static final byte TASK = 'T';
+    private static final byte RESULT = 'R';
+
+    @Override
+    public byte[] encodeTask(TaskMessage task) {
+        Output out = new Output(64 + (int) Math.min(Integer.MAX_VALUE - 64, task.sizeBytes()));
+
+        out.writeByte(TASK);
+        out.writeVarLong(task.id);
+        out.writeString(task.textChunk);
+        out.writeBytes(task.utf8Chunk);
+        out.writeString(task.path);
+        out.writeVarLong(task.offset);
+        out.writeVarLong(task.length);
+
+        return out.toByteArray();
+    }
+
+    @Override
+    public TaskMessage decodeTask(byte[] data) throws IOException {
+        Input in = new Input(data);
+        in.expect(TASK);
+
+        int id = (int) in.readVarLong();
+        String text = in.readString();
+        byte[] utf8 = in.readBytes();
+        String path = in.readString();
+        long offset = in.readVarLong();
+        int length = (int) in.readVarLong();
+
+        return new TaskMessage(id, text, utf8, path, offset, length);
+    }
+
+    @Override
+    public byte[] encodeResult(ResultMessage result) {
+        Output out = new Output(64 + (int) Math.min(Integer.MAX_VALUE - 64, result.sizeBytes()));
+
+        out.writeByte(RESULT);
+        out.writeVarLong(result.taskId);
+        out.writeVarLong(result.wordCount);
+
+        if (result.topWords == null) {
+            out.writeVarLong(0);
+        } else {
+            out.writeVarLong(result.topWords.size() + 1L);
+
+            for (Map.Entry<String, Long> entry : result.topWords.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeVarLong(entry.getValue());
+            }
+        }
+
+        out.writeVarLong(result.topWordsThreshold);
+        out.writeInts(result.unreportedCounts);
+        out.writeVarLong(result.positiveCount);
+        out.writeVarLong(result.negativeCount);
+        out.writeString(result.anonymizedText);
+        out.writeBytes(result.anonymizedUtf8);
+        out.writeDeltas(result.sentenceStarts);
+        out.writeDeltas(result.sentenceLengths);
+        out.writeVarLong(result.processingNanos);
+
+        return out.toByteArray();
+    }
+
+    @Override
+    public ResultMessage decodeResult(byte[] data) throws IOException {
+        Input in = new Input(data);
+        in.expect(RESULT);
+
+        int taskId = (int) in.readVarLong();
+        long wordCount = in.readVarLong();
+        int words = (int) in.readVarLong() - 1;
+        Map<String, Long> topWords = null;
+
+        if (words >= 0) {
+            topWords = new HashMap<>(words * 4 / 3 + 1);
+
+            for (int i = 0; i < words; i++) {
+                topWords.put(in.readString(), in.readVarLong());
+            }
+        }
+
+        long threshold = in.readVarLong();
+        int[] unreportedCounts = in.readInts();
+        long positive = in.readVarLong();
+        long negative = in.readVarLong();
+        String anonymizedText = in.readString();
+        byte[] anonymizedUtf8 = in.readBytes();
+        int[] sentenceStarts = in.readDeltas();
+        int[] sentenceLengths = in.readDeltas();
+        long processingNanos = in.readVarLong();
+
+        return new ResultMessage(taskId, wordCount, topWords, threshold, unreportedCounts, positive, negative, anonymizedText,
+                anonymizedUtf8, sentenceStarts, sentenceLengths, processingNanos);
+    }
+
+    private static final class Output {
+        private byte[] buffer;
+        private int size;
+
+        Output(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[size++] = (byte) value;
+        }
+
+        // zigzag: небольшие отрицательные числа тоже занимают мало байт
+        void writeVarLong(long value) {
+            long zigzag = (value << 1) ^ (value >> 63);
+            ensure(10);
+
+            while ((zigzag & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+
+            buffer[size++] = (byte) zigzag;
+        }
+
+        void writeString(String value) {
+            writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeBytes(byte[] value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+
+            writeVarLong(value.length + 1L);
+            ensure(value.length);
+            System.arraycopy(value, 0, buffer, size, value.length);
+            size += value.length;
+        }
+
+        void writeInts(int[] values) {
+            if (values == null) {
+                writeVarLong(0);
+                return;
+            }
+
+            writeVarLong(values.length + 1L);
+
+            for (int value : values) {
+                writeVarLong(value);
+            }
+        }
+
+        void writeDeltas(int[] values) {
+            if (values == null) {
+                writeVarLong(0);
+                return;
+            }
+
+            writeVarLong(values.length + 1L);
+            int previous = 0;
+
+            for (int value : values) {
+                writeVarLong((long) value - previous);
+                previous = value;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+
+    private static final class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data) {
+            this.data = data;
+        }
+
+        void expect(byte kind) throws IOException {
+            if (data.length == 0 || data[position++] != kind) {
+                throw new IOException("Not a binary " + (kind == TASK ? "task" : "result") + " message");
+            }
+        }
+
+        long readVarLong() throws IOException {
+            long zigzag = 0;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                zigzag |= (long) (b & 0x7F) << shift;
+
+                if (b >= 0) {
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+            }
+
+            throw new IOException("Malformed varint at " + position);
+        }
+
+        String readString() throws IOException {
+            int length = length();
+
+            if (length < 0) {
+                return null;
+            }
+
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = length();
+
+            if (length < 0) {
+                return null;
+            }
+
+            byte[] value = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return value;
+        }
+
+        int[] readInts() throws IOException {
+            int count = (int) readVarLong() - 1;
+
+            if (count < 0) {
+                return null;
+            }
+            if (count > data.length - position) {
+                throw new IOException("Truncated binary message");
+            }
+
+            int[] values = new int[count];
+
+            for (int i = 0; i < count; i++) {
+                values[i] = (int) readVarLong();
+            }
+
+            return values;
+        }
+
+        int[] readDeltas() throws IOException {
+            int count = (int) readVarLong() - 1;
+
+            if (count < 0) {
+                return null;
+            }
+            if (count > data.length - position) {
+                throw new IOException("Truncated binary message");
+            }
+
+            int[] values = new int[count];
+            long previous = 0;
+
+            for (int i = 0; i < count; i++) {
+                previous += readVarLong();
+                values[i] = (int) previous;
+            }
+
+            return values;
+        }
+
+        // -1 для null
+        private int length() throws IOException {
+            long length = readVarLong() - 1;
+
+            if (length > data.length - position) {
+                throw new IOException("Truncated binary message");
+            }
+
+            return (int) length;
+        }
+
+        private byte readByte() throws IOException {
+            if (position >= data.length) {
+                throw new IOException("Truncated binary message");
+            }
+
+            return data[position++];
+        }
+    }
+}
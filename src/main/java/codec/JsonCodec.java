@@ -0,0 +1,32 @@
+package codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.ResultMessage;
+import model.TaskMessage;
+
+import java.io.IOException;
+
+// прежний формат: JSON через Jackson
+public class JsonCodec implements MessageCodec {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Override
+    public byte[] encodeTask(TaskMessage task) throws IOException {
+        return mapper.writeValueAsBytes(task);
+    }
+
+    @Override
+    public TaskMessage decodeTask(byte[] data) throws IOException {
+        return mapper.readValue(data, TaskMessage.class);
+    }
+
+    @Override
+    public byte[] encodeResult(ResultMessage result) throws IOException {
+        return mapper.writeValueAsBytes(result);
+    }
+
+    @Override
+    public ResultMessage decodeResult(byte[] data) throws IOException {
+        return mapper.readValue(data, ResultMessage.class);
+    }
+}
@@ -0,0 +1,23 @@
+package codec;
+
+import config.AppConfig.CodecType;
+import model.ResultMessage;
+import model.TaskMessage;
+
+import java.io.IOException;
+
+// Представление сообщений на проводе для брокеров, которые передают байты (RabbitMQ, Kafka).
+// Продюсер, воркеры и агрегатор должны работать с одним и тем же кодеком.
+public interface MessageCodec {
+    byte[] encodeTask(TaskMessage task) throws IOException;
+    TaskMessage decodeTask(byte[] data) throws IOException;
+    byte[] encodeResult(ResultMessage result) throws IOException;
+    ResultMessage decodeResult(byte[] data) throws IOException;
+
+    static MessageCodec of(CodecType type) {
+        return switch (type) {
+            case JSON -> new JsonCodec();
+            case BINARY -> new BinaryCodec();
+        };
+    }
+}
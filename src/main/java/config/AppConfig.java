@@ -2,8 +2,18 @@ package config;
 
 public class AppConfig {
     public enum Mode { SERIAL, PARALLEL }
-    public enum BrokerType { INMEMORY, RABBITMQ, KAFKA }
+    public enum BrokerType { INMEMORY, RABBITMQ, KAFKA, RINGBUFFER, JMS, MAPPEDQUEUE, NIO }
+    // как ждут потоки RINGBUFFER, когда буфер пуст или полон
+    public enum WaitStrategy { SPIN, YIELD, PARK }
+    // формат сообщений для RABBITMQ, KAFKA, JMS, MAPPEDQUEUE и NIO
+    public enum CodecType { JSON, BINARY }
+    // ALL — продюсер, агрегатор и воркеры в одном процессе; COORDINATOR — продюсер и агрегатор,
+    // WORKER — только воркеры, для запуска в нескольких процессах через общий брокер
+    public enum Role { ALL, COORDINATOR, WORKER }
     public enum ChunkBy { PARAGRAPHS, SENTENCES, BYTES }
+    // UTF8 — секции остаются байтами UTF-8 от чтения файла до записи результата;
+    // MAPPED — файл отображается в память, в задачах только диапазоны, секция — исходный кусок файла
+    public enum TextMode { CHARS, UTF8, MAPPED }
 
     public final Mode mode;
     public final BrokerType broker;
@@ -13,7 +23,18 @@ public class AppConfig {
     public String outputPath;
     public final ChunkBy chunkBy;
     public final int chunkSize;
+    public final boolean adaptiveChunkSize; // --chunkSize auto: chunkSize — начальный размер, дальше его подбирает продюсер
     public final String placeholder;
+    public final String lexiconPath; // null — встроенный лексикон
+    public final String namesPath; // null — встроенный справочник имён
+    public final TextMode textMode;
+    public final long memoryBudgetBytes; // сколько байт текста задач и результатов может одновременно быть в брокере
+    public final WaitStrategy waitStrategy;
+    public final CodecType codec;
+    public final int taskPrefetch; // сколько задач RABBITMQ, KAFKA, JMS и NIO отдают воркеру наперёд
+    public final Role role;
+    public final String queueDir; // каталог файлов очередей MAPPEDQUEUE
+    public final String coordinatorAddress; // host:port координатора NIO
 
     public AppConfig(
             Mode mode,
@@ -24,7 +45,18 @@ public class AppConfig {
             String outPath,
             ChunkBy chunkBy,
             int chunkSize,
-            String placeholder
+            boolean adaptiveChunkSize,
+            String placeholder,
+            String lexiconPath,
+            String namesPath,
+            TextMode textMode,
+            long memoryBudgetBytes,
+            WaitStrategy waitStrategy,
+            CodecType codec,
+            int taskPrefetch,
+            Role role,
+            String queueDir,
+            String coordinatorAddress
     ) {
         this.mode = mode;
         this.broker = broker;
@@ -34,6 +66,17 @@ public class AppConfig {
         this.outputPath = outPath;
         this.chunkBy = chunkBy;
         this.chunkSize = chunkSize;
+        this.adaptiveChunkSize = adaptiveChunkSize;
         this.placeholder = placeholder;
+        this.lexiconPath = lexiconPath;
+        this.namesPath = namesPath;
+        this.textMode = textMode;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.waitStrategy = waitStrategy;
+        this.codec = codec;
+        this.taskPrefetch = taskPrefetch;
+        this.role = role;
+        this.queueDir = queueDir;
+        this.coordinatorAddress = coordinatorAddress;
     }
 }
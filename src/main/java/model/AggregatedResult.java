@@ -1,5 +1,7 @@
 package model;
 
+import util.SentenceIndex;
+
 import java.util.List;
 import java.util.Map;
 
@@ -8,7 +10,8 @@ public class AggregatedResult {
     public Map<String,Long> globalTopWords;
     public double averageSentiment;
     public List<String> combinedAnonymized;
-    public List<String> allSortedSentences;
+    public List<byte[]> combinedAnonymizedUtf8; // вместо combinedAnonymized, если секции обрабатывались в UTF-8
+    public SentenceIndex allSortedSentences;
 
     public AggregatedResult() {}
 }
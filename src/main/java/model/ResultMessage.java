@@ -3,34 +3,64 @@ package model;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.util.List;
 import java.util.Map;
 
 public class ResultMessage {
+    public static final int UNREPORTED_BUCKETS = 256;
+
     public int taskId;
     public long wordCount;
     public Map<String, Long> topWords;
+    public long topWordsThreshold; // слова, не попавшие в topWords, встречаются в секции не чаще
+    // вхождения слов не из topWords по корзинам хеша слова (WordCounter.bucketOf); null, если таких нет
+    public int[] unreportedCounts;
     public long positiveCount;
     public long negativeCount;
     public String anonymizedText;
-    public List<String> sortedSentences;
+    public byte[] anonymizedUtf8; // для секций в UTF-8 вместо anonymizedText
+    public int[] sentenceStarts; // предложения секции, отсортированные по длине, — смещения в её тексте
+    public int[] sentenceLengths;
+    public long processingNanos; // время анализа секции в воркере
 
     @JsonCreator
     public ResultMessage(
             @JsonProperty("taskId") int taskId,
             @JsonProperty("wordCount") long wordCount,
             @JsonProperty("topWords") Map<String, Long> topWords,
+            @JsonProperty("topWordsThreshold") long topWordsThreshold,
+            @JsonProperty("unreportedCounts") int[] unreportedCounts,
             @JsonProperty("positiveCount") long positiveCount,
             @JsonProperty("negativeCount") long negativeCount,
             @JsonProperty("anonymizedText") String anonymizedText,
-            @JsonProperty("sentences") List<String> sentences
+            @JsonProperty("anonymizedUtf8") byte[] anonymizedUtf8,
+            @JsonProperty("sentenceStarts") int[] sentenceStarts,
+            @JsonProperty("sentenceLengths") int[] sentenceLengths,
+            @JsonProperty("processingNanos") long processingNanos
     ) {
         this.taskId = taskId;
         this.wordCount = wordCount;
         this.topWords = topWords;
+        this.topWordsThreshold = topWordsThreshold;
+        this.unreportedCounts = unreportedCounts;
         this.positiveCount = positiveCount;
         this.negativeCount = negativeCount;
         this.anonymizedText = anonymizedText;
-        this.sortedSentences = sentences;
+        this.anonymizedUtf8 = anonymizedUtf8;
+        this.sentenceStarts = sentenceStarts;
+        this.sentenceLengths = sentenceLengths;
+        this.processingNanos = processingNanos;
+    }
+
+    // примерный объём в куче — для учёта кредитов брокера
+    public long sizeBytes() {
+        long size = 64 + (topWords == null ? 0 : topWords.size() * 64L);
+
+        size += anonymizedText == null ? 0 : 2L * anonymizedText.length();
+        size += anonymizedUtf8 == null ? 0 : anonymizedUtf8.length;
+        size += unreportedCounts == null ? 0 : 4L * unreportedCounts.length;
+        size += sentenceStarts == null ? 0 : 4L * sentenceStarts.length;
+        size += sentenceLengths == null ? 0 : 4L * sentenceLengths.length;
+
+        return size;
     }
 }
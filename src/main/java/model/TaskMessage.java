@@ -6,14 +6,46 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 public class TaskMessage {
     public int id;
     public String textChunk;
+    public byte[] utf8Chunk; // секция в UTF-8 вместо textChunk
+    public String path; // или диапазон файла: воркер читает его сам из отображения в память
+    public long offset;
+    public int length;
+
+    public TaskMessage(int taskId, String chunk) {
+        this(taskId, chunk, null, null, 0, 0);
+    }
+
+    public TaskMessage(int taskId, byte[] utf8Chunk) {
+        this(taskId, null, utf8Chunk, null, 0, 0);
+    }
+
+    public TaskMessage(int taskId, String path, long offset, int length) {
+        this(taskId, null, null, path, offset, length);
+    }
 
     @JsonCreator
     public TaskMessage(
             @JsonProperty("taskId") int taskId,
-            @JsonProperty("chunk") String chunk
+            @JsonProperty("chunk") String chunk,
+            @JsonProperty("utf8Chunk") byte[] utf8Chunk,
+            @JsonProperty("path") String path,
+            @JsonProperty("offset") long offset,
+            @JsonProperty("length") int length
     ) {
         this.id = taskId;
         this.textChunk = chunk;
+        this.utf8Chunk = utf8Chunk;
+        this.path = path;
+        this.offset = offset;
+        this.length = length;
     }
-}
 
+    // примерный объём в куче; текст диапазона файла воркер всё равно прочитает в память
+    public long sizeBytes() {
+        if (textChunk != null) {
+            return 2L * textChunk.length();
+        }
+
+        return utf8Chunk != null ? utf8Chunk.length : length;
+    }
+}
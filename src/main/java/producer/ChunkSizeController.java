@@ -0,0 +1,120 @@
+package producer;
+
+import config.AppConfig.ChunkBy;
+import model.ResultMessage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+
+// Размер секции по обратной связи от воркеров. Продюсер берёт размер перед каждой секцией (getAsInt),
+// агрегатор сообщает о каждом результате и времени его слияния (completed). По результатам сглаженно
+// оцениваются время анализа единицы (абзаца, предложения, байта) и накладные расходы на задачу: задержка
+// результата минус время анализа, пока очередь неглубокая и задержка не состоит из ожидания, и слияние
+// результата — агрегатор один на всех воркеров, поэтому оно считается workers раз. Секция подбирается так,
+// чтобы её анализ был примерно в OVERHEAD_FACTOR раз дольше накладных, но не короче MIN_TASK_NANOS: часть
+// расходов на результат (декодирование, сборка итога) сюда не попадает. Если задач в работе меньше, чем
+// воркеров, — вдвое короче, чтобы работы хватило всем. За один шаг размер меняется не больше чем вдвое,
+// а уменьшается только после прогрева и по результату секции текущего размера: первые результаты приходят
+// от непрогретого JIT, и, пока они идут, продюсер успевает нарезать тысячи секций.
+public class ChunkSizeController implements IntSupplier {
+    private static final int OVERHEAD_FACTOR = 10;
+    private static final long MIN_TASK_NANOS = 10_000_000;
+    private static final long MAX_TASK_NANOS = 200_000_000;
+    private static final double SMOOTHING = 0.2;
+    private static final int WARMUP_RESULTS_PER_WORKER = 4;
+
+    private final int minSize;
+    private final int maxSize;
+    private final int workers;
+    // задачи в работе: номер -> {время публикации, размер, поколение размера}
+    private final Map<Integer, long[]> inFlight = new ConcurrentHashMap<>();
+
+    private volatile int size;
+    private volatile int generation; // растёт при каждой смене размера
+    private int lastIssued;
+    private int lastIssuedGeneration;
+
+    private double nanosPerUnit;
+    private double overheadNanos;
+    private double mergeNanos;
+    private int samples;
+
+    public ChunkSizeController(ChunkBy chunkBy, int seed, int workers) {
+        this.minSize = chunkBy == ChunkBy.BYTES ? 4 << 10 : 1;
+        this.maxSize = chunkBy == ChunkBy.BYTES ? 64 << 20 : 100_000;
+        this.workers = Math.max(1, workers);
+        this.size = Math.max(minSize, Math.min(maxSize, seed));
+    }
+
+    // начальный размер для --chunkSize auto — порядка MIN_TASK_NANOS анализа на прогретом JIT
+    public static int seed(ChunkBy chunkBy) {
+        return switch (chunkBy) {
+            case PARAGRAPHS -> 500;
+            case SENTENCES -> 2000;
+            case BYTES -> 256 << 10;
+        };
+    }
+
+    @Override
+    public int getAsInt() {
+        lastIssuedGeneration = generation;
+        lastIssued = size;
+        return lastIssued;
+    }
+
+    // вызывается продюсером сразу после публикации секции, взятой по последнему getAsInt
+    public void published(int taskId) {
+        inFlight.put(taskId, new long[]{System.nanoTime(), lastIssued, lastIssuedGeneration});
+    }
+
+    public void completed(ResultMessage result, long resultMergeNanos) {
+        long[] task = inFlight.remove(result.taskId);
+
+        if (task == null || result.processingNanos <= 0) {
+            return;
+        }
+
+        long latency = System.nanoTime() - task[0];
+        int depth = inFlight.size();
+
+        synchronized (this) {
+            nanosPerUnit = smooth(nanosPerUnit, result.processingNanos / (double) task[1]);
+            mergeNanos = smooth(mergeNanos, resultMergeNanos);
+            samples++;
+
+            if (depth <= workers) {
+                overheadNanos = smooth(overheadNanos, Math.max(0, latency - result.processingNanos));
+            }
+
+            double overhead = Math.max(overheadNanos, mergeNanos * workers);
+            double target = Math.max(MIN_TASK_NANOS, Math.min(MAX_TASK_NANOS, overhead * OVERHEAD_FACTOR));
+
+            if (depth < workers) {
+                target /= 2;
+            }
+
+            long current = size;
+            long next = Math.round(target / nanosPerUnit);
+            next = Math.max(current / 2, Math.min(current * 2, next));
+
+            if (next < current && (task[2] != generation || samples <= workers * WARMUP_RESULTS_PER_WORKER)) {
+                return;
+            }
+            next = Math.max(minSize, Math.min(maxSize, next));
+
+            if (next != current) {
+                size = (int) next;
+                generation++;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static double smooth(double average, double sample) {
+        return average == 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+}
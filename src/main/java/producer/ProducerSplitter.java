@@ -2,32 +2,66 @@ package producer;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
 
 import broker.MessageBroker;
 import config.AppConfig.ChunkBy;
+import config.AppConfig.TextMode;
 import model.TaskMessage;
+import util.InputFiles;
+import util.MappedFile;
+import util.MappedSplitter;
 import util.TextSplitter;
+import util.Utf8Splitter;
 
 public class ProducerSplitter {
     private final MessageBroker broker;
+    private final ChunkSizeController chunkSizes; // null — размер секций постоянный
+    private volatile Consumer<TaskMessage> taskListener = task -> {};
 
     public ProducerSplitter(MessageBroker broker) {
+        this(broker, null);
+    }
+
+    public ProducerSplitter(MessageBroker broker, ChunkSizeController chunkSizes) {
         this.broker = broker;
+        this.chunkSizes = chunkSizes;
+    }
+
+    // вызывается для каждой секции до её публикации, например чтобы агрегатор взял её текст у продюсера
+    public void setTaskListener(Consumer<TaskMessage> taskListener) {
+        this.taskListener = taskListener;
     }
 
-    public int splitAndPublish(Path inputFile, ChunkBy chunkBy, int chunkSize) throws Exception {
+    // Файлы читаются подряд как один поток (InputFiles), номера секций сквозные в порядке файлов.
+    // Файлы .gz распаковываются параллельно; отобразить сжатый текст нельзя, поэтому MAPPED для них — это UTF8
+    public int splitAndPublish(List<Path> inputFiles, ChunkBy chunkBy, int chunkSize, TextMode textMode) throws Exception {
+        if (textMode == TextMode.UTF8 || (textMode == TextMode.MAPPED && InputFiles.anyGzip(inputFiles))) {
+            return splitAndPublishUtf8(inputFiles, chunkBy, chunkSize);
+        }
+        if (textMode == TextMode.MAPPED) {
+            return splitAndPublishRanges(inputFiles, chunkBy, chunkSize);
+        }
+
         int chunkCount = 0;
 
-        try (BufferedReader reader = Files.newBufferedReader(inputFile)) {
-            Iterator<String> chunkIterator = TextSplitter.splitStream(reader, chunkBy, chunkSize);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(InputFiles.open(inputFiles), StandardCharsets.UTF_8.newDecoder()))) {
+            Iterator<String> chunkIterator = chunkSizes == null
+                    ? TextSplitter.splitStream(reader, chunkBy, chunkSize)
+                    : TextSplitter.splitStream(reader, chunkBy, chunkSizes);
 
             while (chunkIterator.hasNext()) {
                 String chunk = chunkIterator.next();
                 TaskMessage message = new TaskMessage(chunkCount, chunk);
 
+                taskListener.accept(message);
+                published(chunkCount);
                 broker.publishTask(message);
 
                 chunkCount++;
@@ -35,8 +69,76 @@ public class ProducerSplitter {
         } catch (IOException e) {
         }
 
+        broker.flush();
+
         System.out.println("[ProducerSplitter] generate chunks of length = " + chunkCount + " for broker = " + broker.getClass());
 
         return chunkCount;
     }
+
+    // секции публикуются байтами UTF-8, без декодирования в строки
+    private int splitAndPublishUtf8(List<Path> inputFiles, ChunkBy chunkBy, int chunkSize) throws Exception {
+        int chunkCount = 0;
+
+        try (InputStream in = InputFiles.open(inputFiles)) {
+            Iterator<byte[]> chunkIterator = chunkSizes == null
+                    ? Utf8Splitter.splitStream(in, chunkBy, chunkSize)
+                    : Utf8Splitter.splitStream(in, chunkBy, chunkSizes);
+
+            while (chunkIterator.hasNext()) {
+                TaskMessage message = new TaskMessage(chunkCount, chunkIterator.next());
+
+                taskListener.accept(message);
+                published(chunkCount);
+                broker.publishTask(message);
+                chunkCount++;
+            }
+        } catch (IOException e) {
+        }
+
+        broker.flush();
+
+        System.out.println("[ProducerSplitter] generate chunks of length = " + chunkCount + " for broker = " + broker.getClass());
+
+        return chunkCount;
+    }
+
+    // публикуются только диапазоны файла: стоимость не зависит от объёма текста, текст не копируется.
+    // Диапазон лежит в одном файле, поэтому файлы режутся каждый сам по себе и мелкие не объединяются
+    private int splitAndPublishRanges(List<Path> inputFiles, ChunkBy chunkBy, int chunkSize) throws Exception {
+        int chunkCount = 0;
+
+        for (Path inputFile : inputFiles) {
+            String path = inputFile.toAbsolutePath().toString();
+            MappedFile file = MappedFile.open(inputFile);
+            // границы ищутся параллельно по сегментам файла, публикация — по порядку;
+            // при подстройке размера следующая граница зависит от ответов воркеров, поэтому последовательно
+            Iterator<MappedSplitter.Range> ranges = chunkSizes == null
+                    ? MappedSplitter.splitRangesParallel(file, chunkBy, chunkSize).iterator()
+                    : MappedSplitter.splitRanges(file, chunkBy, chunkSizes);
+
+            while (ranges.hasNext()) {
+                MappedSplitter.Range range = ranges.next();
+                TaskMessage message = new TaskMessage(chunkCount, path, range.offset(), range.length());
+
+                taskListener.accept(message);
+                published(chunkCount);
+                broker.publishTask(message);
+                chunkCount++;
+            }
+        }
+
+        broker.flush();
+
+        System.out.println("[ProducerSplitter] generate chunks of length = " + chunkCount + " for broker = " + broker.getClass());
+
+        return chunkCount;
+    }
+
+    // до публикации: результат быстрой задачи может прийти раньше, чем publishTask вернёт управление
+    private void published(int taskId) {
+        if (chunkSizes != null) {
+            chunkSizes.published(taskId);
+        }
+    }
 }
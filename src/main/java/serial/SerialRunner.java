@@ -2,70 +2,145 @@ package serial;
 
 import config.AppConfig;
 import model.AggregatedResult;
+import sink.JsonResultWriter;
 import sink.ResultSink;
+import util.ChunkAnalyzer;
+import util.InputFiles;
+import util.MappedFile;
+import util.MappedSplitter;
+import util.NameAnonymizer;
+import util.SentenceIndex;
+import util.SentimentLexicon;
 import util.TextProcessor;
 import util.TextSplitter;
+import util.Utf8Splitter;
+import util.WordCounter;
 
 import java.io.BufferedReader;
-import java.nio.file.Files;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class SerialRunner {
     private final AppConfig config;
+    private final SentimentLexicon lexicon;
+    private final NameAnonymizer names;
 
-    public SerialRunner(AppConfig config) {
+    public SerialRunner(AppConfig config, SentimentLexicon lexicon, NameAnonymizer names) {
         this.config = config;
+        this.lexicon = lexicon;
+        this.names = names;
     }
 
-    public AggregatedResult run(String placeholder) throws Exception {
+    // обезличенный текст секций пишется сразу в выходной файл, в результате combinedAnonymized == null
+    public AggregatedResult run() throws Exception {
         long totalWords = 0;
-        Map<String,Long> globalTopN = new HashMap<>();
+        WordCounter globalTopN = new WordCounter();
         long positiveSum = 0;
         long negativeSum = 0;
-        List<String> anonymized = new ArrayList<>();
-        List<String> allSentences = new ArrayList<>();
-
-        try (BufferedReader reader = Files.newBufferedReader(Path.of(config.inputPath))) {
-            Iterator<String> chunkIterator = TextSplitter.splitStream(reader, config.chunkBy, config.chunkSize);
-
-            while (chunkIterator.hasNext()) {
-                String chunk = chunkIterator.next();
-                
-                long wordCount = TextProcessor.wordCount(chunk);
-                totalWords += wordCount;
-                
-                var top = TextProcessor.topCounts(chunk);
-                top.forEach((k, v) -> globalTopN.merge(k, v, Long::sum));
-                
-                long[] positiveNegative = TextProcessor.lexiconSentiment(chunk);
-                positiveSum += positiveNegative[0];
-                negativeSum += positiveNegative[1];
-                
-                anonymized.add(TextProcessor.replaceNames(chunk, placeholder));
-                allSentences.addAll(TextProcessor.sortSentencesByLength(chunk));
+        SentenceIndex allSentences = new SentenceIndex();
+        int chunkId = 0;
+        AggregatedResult aggregatedResult = new AggregatedResult();
+        ResultSink sink = new ResultSink();
+
+        boolean utf8 = config.textMode != AppConfig.TextMode.CHARS;
+        List<Path> inputFiles = InputFiles.resolve(config.inputPath);
+        // сжатые файлы не отображаются: с .gz режим MAPPED читает распакованный поток, как UTF8
+        boolean mapped = config.textMode == AppConfig.TextMode.MAPPED && !InputFiles.anyGzip(inputFiles);
+
+        try (InputStream in = mapped ? InputStream.nullInputStream() : InputFiles.open(inputFiles);
+             JsonResultWriter json = sink.open(Path.of(config.outputPath))) {
+            // в режимах UTF8 и MAPPED секции не декодируются: анализ идёт по байтам, декодирование — только при записи JSON
+            Iterator<String> textChunks = utf8 ? null : TextSplitter.splitStream(
+                    new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder())), config.chunkBy, config.chunkSize);
+            Iterator<byte[]> utf8Chunks = switch (config.textMode) {
+                case UTF8 -> Utf8Splitter.splitStream(in, config.chunkBy, config.chunkSize);
+                case MAPPED -> mapped ? mappedChunks(inputFiles) : Utf8Splitter.splitStream(in, config.chunkBy, config.chunkSize);
+                default -> null;
+            };
+            ByteArrayOutputStream anonymizedUtf8 = new ByteArrayOutputStream();
+
+            json.beginObject();
+            json.name("combinedAnonymized").beginArray();
+
+            while (utf8 ? utf8Chunks.hasNext() : textChunks.hasNext()) {
+                ChunkAnalyzer.Result analysis;
+
+                if (utf8) {
+                    byte[] chunk = utf8Chunks.next();
+
+                    anonymizedUtf8.reset();
+                    analysis = ChunkAnalyzer.analyzeUtf8(chunk, names, lexicon, anonymizedUtf8);
+                    json.valueUtf8(anonymizedUtf8.toByteArray(), 0, Integer.MAX_VALUE);
+                    allSentences.setUtf8Text(chunkId, chunk);
+                } else {
+                    String chunk = textChunks.next();
+
+                    Appendable anonymized = json.beginString();
+                    analysis = ChunkAnalyzer.analyze(chunk, names, lexicon, anonymized);
+                    json.endString();
+                    allSentences.setText(chunkId, chunk);
+                }
+
+                totalWords += analysis.wordCount;
+                globalTopN.merge(analysis.wordCounts);
+
+                positiveSum += analysis.positiveCount;
+                negativeSum += analysis.negativeCount;
+
+                SentenceIndex sentences = analysis.sentences;
+
+                for (int i = 0; i < sentences.size(); i++) {
+                    allSentences.add(chunkId, sentences.start(i), sentences.length(i));
+                }
+
+                chunkId++;
             }
-        }
 
-        double sentiment = TextProcessor.lexiconSentiment(positiveSum, negativeSum);
+            json.endArray();
 
-        AggregatedResult aggregatedResult = new AggregatedResult();
-        aggregatedResult.totalWordCount = totalWords;
-        aggregatedResult.globalTopWords = TopN(globalTopN, config.topN);
-        aggregatedResult.averageSentiment = sentiment;
-        aggregatedResult.combinedAnonymized = anonymized;
-        aggregatedResult.allSortedSentences = allSentences;
+            aggregatedResult.totalWordCount = totalWords;
+            aggregatedResult.globalTopWords = globalTopN.top(config.topN);
+            aggregatedResult.averageSentiment = TextProcessor.lexiconSentiment(positiveSum, negativeSum);
+            aggregatedResult.allSortedSentences = allSentences;
 
-        new ResultSink().write(aggregatedResult, Path.of(config.outputPath));
+            sink.writeSummary(json, aggregatedResult);
+            json.endObject();
+        }
 
         return aggregatedResult;
     }
 
-    private Map<String,Long> TopN(Map<String,Long> map, int n) {
-        return map.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .limit(n)
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b)->a, HashMap::new));
+    // файлы режутся по очереди, каждый сам по себе
+    private Iterator<byte[]> mappedChunks(List<Path> paths) {
+        Iterator<Path> files = paths.iterator();
+
+        return new Iterator<>() {
+            private MappedFile file;
+            private Iterator<MappedSplitter.Range> ranges = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!ranges.hasNext() && files.hasNext()) {
+                    file = MappedFile.open(files.next());
+                    ranges = MappedSplitter.splitRanges(file, config.chunkBy, config.chunkSize);
+                }
+
+                return ranges.hasNext();
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                MappedSplitter.Range range = ranges.next();
+                return file.read(range.offset(), range.length());
+            }
+        };
     }
 }
@@ -0,0 +1,255 @@
+package sink;
+
+import util.Utf8Decoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+// Потоковая запись JSON в формате, близком к DefaultPrettyPrinter Jackson.
+// Строковое значение можно писать по частям через beginString(), не собирая его в памяти.
+public class JsonResultWriter implements Closeable {
+    private static final int MAX_DEPTH = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+    private final Utf8Decoder decoder = new Utf8Decoder();
+    private final char[] buffer = new char[8192];
+    private int position;
+
+    private final boolean[] isObject = new boolean[MAX_DEPTH];
+    private final boolean[] isEmpty = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    private final Appendable stringValue = new Appendable() {
+        @Override
+        public Appendable append(CharSequence text) throws IOException {
+            return append(text, 0, text.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence text, int start, int end) throws IOException {
+            for (int i = start; i < end; i++) {
+                escaped(text.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            escaped(c);
+            return this;
+        }
+    };
+
+    public JsonResultWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonResultWriter beginObject() throws IOException {
+        beforeValue();
+        put('{');
+        push(true);
+        return this;
+    }
+
+    public JsonResultWriter endObject() throws IOException {
+        boolean empty = isEmpty[--depth];
+
+        if (empty) {
+            put(' ');
+        } else {
+            newLine();
+        }
+
+        put('}');
+        return this;
+    }
+
+    public JsonResultWriter beginArray() throws IOException {
+        beforeValue();
+        put('[');
+        push(false);
+        return this;
+    }
+
+    public JsonResultWriter endArray() throws IOException {
+        depth--;
+        put(' ');
+        put(']');
+        return this;
+    }
+
+    public JsonResultWriter name(String name) throws IOException {
+        if (!isEmpty[depth - 1]) {
+            put(',');
+        }
+
+        isEmpty[depth - 1] = false;
+        newLine();
+        put('"');
+        stringValue.append(name);
+        put('"');
+        put(' ');
+        put(':');
+        put(' ');
+        afterName = true;
+        return this;
+    }
+
+    public JsonResultWriter value(long value) throws IOException {
+        beforeValue();
+        raw(Long.toString(value));
+        return this;
+    }
+
+    public JsonResultWriter value(double value) throws IOException {
+        beforeValue();
+        raw(Double.toString(value));
+        return this;
+    }
+
+    public JsonResultWriter value(CharSequence value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+
+        return value(value, 0, value.length());
+    }
+
+    public JsonResultWriter value(CharSequence text, int start, int end) throws IOException {
+        beforeValue();
+        put('"');
+        stringValue.append(text, start, end);
+        put('"');
+        return this;
+    }
+
+    // строка из байтов UTF-8 начиная с start: до charCount символов или до конца массива
+    public JsonResultWriter valueUtf8(byte[] text, int start, int charCount) throws IOException {
+        beforeValue();
+        put('"');
+
+        decoder.reset(text, start, text.length);
+
+        for (int i = 0; i < charCount && decoder.hasNext(); i++) {
+            escaped(decoder.next());
+        }
+
+        put('"');
+        return this;
+    }
+
+    public JsonResultWriter nullValue() throws IOException {
+        beforeValue();
+        raw("null");
+        return this;
+    }
+
+    // открывает строковое значение; всё, что записано в возвращённый Appendable, экранируется
+    public Appendable beginString() throws IOException {
+        beforeValue();
+        put('"');
+        return stringValue;
+    }
+
+    public JsonResultWriter endString() throws IOException {
+        put('"');
+        return this;
+    }
+
+    public void flush() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void push(boolean object) {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nesting is too deep");
+        }
+
+        isObject[depth] = object;
+        isEmpty[depth] = true;
+        depth++;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth == 0) {
+            return;
+        }
+
+        // значения массива пишутся в строку через ", "
+        if (!isObject[depth - 1]) {
+            put(isEmpty[depth - 1] ? ' ' : ',');
+            if (!isEmpty[depth - 1]) {
+                put(' ');
+            }
+            isEmpty[depth - 1] = false;
+        }
+    }
+
+    private void newLine() throws IOException {
+        put('\n');
+
+        for (int i = 0; i < depth; i++) {
+            put(' ');
+            put(' ');
+        }
+    }
+
+    private void escaped(char c) throws IOException {
+        if (c >= 0x20 && c != '"' && c != '\\') {
+            put(c);
+            return;
+        }
+
+        put('\\');
+
+        switch (c) {
+            case '"' -> put('"');
+            case '\\' -> put('\\');
+            case '\n' -> put('n');
+            case '\r' -> put('r');
+            case '\t' -> put('t');
+            case '\b' -> put('b');
+            case '\f' -> put('f');
+            default -> {
+                put('u');
+                put('0');
+                put('0');
+                put(HEX[c >> 4]);
+                put(HEX[c & 0xF]);
+            }
+        }
+    }
+
+    private void raw(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            put(text.charAt(i));
+        }
+    }
+
+    private void put(char c) throws IOException {
+        if (position == buffer.length) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+
+        buffer[position++] = c;
+    }
+}
@@ -1,17 +1,97 @@
 package sink;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import model.AggregatedResult;
+import util.SentenceIndex;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 
 public class ResultSink {
-    private final ObjectMapper mapper = new ObjectMapper();
-
     public void write(AggregatedResult aggregatedResult, Path out) throws Exception {
-        var json = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(aggregatedResult);
-        Files.writeString(out, json);
+        try (JsonResultWriter json = open(out)) {
+            json.beginObject();
+            json.name("combinedAnonymized");
+
+            if (aggregatedResult.combinedAnonymizedUtf8 != null) {
+                writeUtf8Strings(json, aggregatedResult.combinedAnonymizedUtf8);
+            } else {
+                writeStrings(json, aggregatedResult.combinedAnonymized);
+            }
+
+            writeSummary(json, aggregatedResult);
+            json.endObject();
+        }
+    }
+
+    // для потоковой записи: вызывающий сам открывает объект и пишет combinedAnonymized по секциям
+    public JsonResultWriter open(Path out) throws IOException {
+        return new JsonResultWriter(new OutputStreamWriter(Files.newOutputStream(out), StandardCharsets.UTF_8));
+    }
+
+    public void writeSummary(JsonResultWriter json, AggregatedResult aggregatedResult) throws IOException {
+        json.name("totalWordCount").value(aggregatedResult.totalWordCount);
+
+        json.name("globalTopWords");
+        if (aggregatedResult.globalTopWords == null) {
+            json.nullValue();
+        } else {
+            json.beginObject();
+            for (Map.Entry<String, Long> entry : aggregatedResult.globalTopWords.entrySet()) {
+                json.name(entry.getKey()).value(entry.getValue());
+            }
+            json.endObject();
+        }
+
+        json.name("averageSentiment").value(aggregatedResult.averageSentiment);
+
+        json.name("allSortedSentences");
+        writeSentences(json, aggregatedResult.allSortedSentences);
+    }
+
+    // текст предложений берётся из секций только здесь, при записи
+    private void writeSentences(JsonResultWriter json, SentenceIndex sentences) throws IOException {
+        if (sentences == null) {
+            json.nullValue();
+            return;
+        }
+
+        json.beginArray();
+        for (int i = 0; i < sentences.size(); i++) {
+            int start = sentences.start(i);
+            CharSequence text = sentences.text(i);
+
+            if (text != null) {
+                json.value(text, start, start + sentences.length(i));
+            } else {
+                json.valueUtf8(sentences.utf8Text(i), start, sentences.length(i));
+            }
+        }
+        json.endArray();
     }
-}
 
+    private void writeStrings(JsonResultWriter json, List<String> values) throws IOException {
+        if (values == null) {
+            json.nullValue();
+            return;
+        }
+
+        json.beginArray();
+        for (String value : values) {
+            json.value(value);
+        }
+        json.endArray();
+    }
+
+    private void writeUtf8Strings(JsonResultWriter json, List<byte[]> values) throws IOException {
+        json.beginArray();
+        for (byte[] value : values) {
+            json.valueUtf8(value, 0, Integer.MAX_VALUE);
+        }
+        json.endArray();
+    }
+}
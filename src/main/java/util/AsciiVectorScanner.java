@@ -0,0 +1,60 @@
+package util;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Разметка блока из BLOCK символов векторными сравнениями: маски букв и заглавных, текст в нижнем регистре.
+// Работает только для блоков из ASCII. Класс загружается, только если подключён модуль jdk.incubator.vector.
+final class AsciiVectorScanner {
+    static final int BLOCK = Long.SIZE;
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED.length() <= BLOCK
+            ? ShortVector.SPECIES_PREFERRED
+            : ShortVector.SPECIES_256;
+
+    private final char[] lowered = new char[BLOCK];
+    private long letters;
+    private long upper;
+
+    // false, если в блоке есть не-ASCII символы
+    boolean scan(char[] block) {
+        long letterBits = 0;
+        long upperBits = 0;
+
+        for (int offset = 0; offset < BLOCK; offset += SPECIES.length()) {
+            ShortVector chars = ShortVector.fromCharArray(SPECIES, block, offset);
+
+            if (chars.and((short) 0xFF80).compare(VectorOperators.NE, (short) 0).anyTrue()) {
+                return false;
+            }
+
+            ShortVector folded = chars.or((short) 0x20);
+            VectorMask<Short> isLetter = folded.compare(VectorOperators.GE, (short) 'a')
+                    .and(folded.compare(VectorOperators.LE, (short) 'z'));
+            VectorMask<Short> isUpper = chars.compare(VectorOperators.GE, (short) 'A')
+                    .and(chars.compare(VectorOperators.LE, (short) 'Z'));
+
+            chars.blend(folded, isUpper).intoCharArray(lowered, offset);
+            letterBits |= isLetter.toLong() << offset;
+            upperBits |= isUpper.toLong() << offset;
+        }
+
+        letters = letterBits;
+        upper = upperBits;
+        return true;
+    }
+
+    char[] lowered() {
+        return lowered;
+    }
+
+    long letters() {
+        return letters;
+    }
+
+    long upper() {
+        return upper;
+    }
+}
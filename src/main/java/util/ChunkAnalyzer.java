@@ -0,0 +1,326 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import static util.WordTokenizer.*;
+
+// один проход по секции: слова, частоты, тональность, замена имён и границы предложений
+public class ChunkAnalyzer {
+    private static final int VECTOR_BLOCK = AsciiVectorScanner.BLOCK;
+
+    // векторный путь включается, если подключён модуль jdk.incubator.vector
+    // и на контрольном тексте он даёт тот же результат, что и скалярный
+    private static final boolean SUPPORTED = vectorSupported();
+    private static final boolean VECTORIZED = SUPPORTED && crossCheck(controlText());
+
+    public static class Result {
+        public long wordCount;
+        public WordCounter wordCounts;
+        public long positiveCount;
+        public long negativeCount;
+        public String anonymizedText; // null, если текст писался в переданный Appendable
+        public byte[] anonymizedUtf8; // то же для секций в UTF-8
+        public SentenceIndex sentences; // предложения секции (номер секции 0), отсортированные по длине
+    }
+
+    public static Result analyze(String text, NameAnonymizer names, SentimentLexicon lexicon) {
+        StringBuilder anonymized = new StringBuilder(text.length() + 16);
+        Result result = analyze(text, names, lexicon, anonymized);
+        result.anonymizedText = anonymized.toString();
+        return result;
+    }
+
+    // обезличенный текст пишется прямо в anonymizedOut, без промежуточной строки
+    public static Result analyze(String text, NameAnonymizer names, SentimentLexicon lexicon, Appendable anonymizedOut) {
+        return analyze(text, names, lexicon, anonymizedOut, VECTORIZED);
+    }
+
+    public static Result analyzeUtf8(byte[] text, NameAnonymizer names, SentimentLexicon lexicon) {
+        ByteArrayOutputStream anonymized = new ByteArrayOutputStream(text.length + 16);
+        Result result = analyzeUtf8(text, names, lexicon, anonymized);
+        result.anonymizedUtf8 = anonymized.toByteArray();
+        return result;
+    }
+
+    // секция в UTF-8 разбирается без декодирования в строку: позиции слов и предложений — байтовые смещения,
+    // длины предложений — в символах, как и для строк
+    public static Result analyzeUtf8(byte[] text, NameAnonymizer names, SentimentLexicon lexicon, OutputStream anonymizedOut) {
+        Pass pass = new Pass(text, names, lexicon, anonymizedOut);
+        Utf8Decoder decoder = new Utf8Decoder().reset(text, 0, text.length);
+
+        try {
+            while (decoder.hasNext()) {
+                char c = decoder.next();
+                pass.accept(c, classOf(c), decoder.charStart());
+            }
+
+            pass.accept(' ', OTHER, text.length);
+            pass.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return pass.result();
+    }
+
+    // сверка векторного пути со скалярным; false и тогда, когда векторный путь недоступен
+    private static boolean crossCheck(String text, NameAnonymizer names, SentimentLexicon lexicon) {
+        if (!SUPPORTED) {
+            return false;
+        }
+
+        StringBuilder scalarText = new StringBuilder();
+        StringBuilder vectorText = new StringBuilder();
+        Result scalar = analyze(text, names, lexicon, scalarText, false);
+        Result vector = analyze(text, names, lexicon, vectorText, true);
+
+        if (scalar.wordCount != vector.wordCount
+                || scalar.positiveCount != vector.positiveCount
+                || scalar.negativeCount != vector.negativeCount
+                || !scalarText.toString().equals(vectorText.toString())
+                || !scalar.wordCounts.toMap().equals(vector.wordCounts.toMap())
+                || scalar.sentences.size() != vector.sentences.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < scalar.sentences.size(); i++) {
+            if (scalar.sentences.start(i) != vector.sentences.start(i) || scalar.sentences.length(i) != vector.sentences.length(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // путь выбирается явно — так тесты сверяют векторный со скалярным
+    static Result analyze(String text, NameAnonymizer names, SentimentLexicon lexicon, Appendable anonymizedOut, boolean vectorized) {
+        Pass pass = new Pass(text, names, lexicon, anonymizedOut, vectorized);
+        int length = text.length();
+
+        try {
+            int i = 0;
+
+            while (i < length) {
+                // блок целиком из ASCII размечается векторно, иначе идём по символам
+                if (vectorized && length - i >= VECTOR_BLOCK && pass.asciiBlock(i)) {
+                    i += VECTOR_BLOCK;
+                    continue;
+                }
+
+                int end = vectorized ? Math.min(length, i + VECTOR_BLOCK) : length;
+
+                for (; i < end; i++) {
+                    char c = text.charAt(i);
+                    pass.accept(c, classOf(c), i);
+                }
+            }
+
+            pass.accept(' ', OTHER, length);
+            pass.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return pass.result();
+    }
+
+    private static final class Pass {
+        // ровно одно из text/utf8 не null; позиции — индексы символов или байтовые смещения соответственно
+        private final String text;
+        private final byte[] utf8;
+        private final int length;
+        private final NameAnonymizer names;
+        private final SentimentLexicon lexicon;
+        private final Appendable anonymizedOut;
+        private final OutputStream anonymizedUtf8Out;
+
+        private final WordTokenizer tokenizer = new WordTokenizer();
+        private final WordCounter wordCounts = new WordCounter();
+        private final SentimentLexicon.Matcher sentiment;
+        private final SentenceIndex sentences = new SentenceIndex();
+        private final SentenceSegmenter segmenter = new SentenceSegmenter();
+
+        private final char[] block;
+        private final AsciiVectorScanner scanner;
+
+        private long wordCount;
+        private int copiedUpTo;
+        private boolean sentenceInitial = true;
+        private int sentenceStart;
+
+        Pass(String text, NameAnonymizer names, SentimentLexicon lexicon, Appendable anonymizedOut, boolean vectorized) {
+            this.text = text;
+            this.utf8 = null;
+            this.length = text.length();
+            this.names = names;
+            this.lexicon = lexicon;
+            this.anonymizedOut = anonymizedOut;
+            this.anonymizedUtf8Out = null;
+            this.sentiment = lexicon.matcher();
+            this.block = vectorized ? new char[VECTOR_BLOCK] : null;
+            this.scanner = vectorized ? new AsciiVectorScanner() : null;
+
+            sentences.setText(0, text);
+        }
+
+        Pass(byte[] utf8, NameAnonymizer names, SentimentLexicon lexicon, OutputStream anonymizedOut) {
+            this.text = null;
+            this.utf8 = utf8;
+            this.length = utf8.length;
+            this.names = names;
+            this.lexicon = lexicon;
+            this.anonymizedOut = null;
+            this.anonymizedUtf8Out = anonymizedOut;
+            this.sentiment = lexicon.matcher();
+            this.block = null;
+            this.scanner = null;
+
+            sentences.setUtf8Text(0, utf8);
+        }
+
+        void accept(char c, int charClass, int i) throws IOException {
+            if (tokenizer.accept(c, charClass, i)) {
+                completeWord();
+            }
+
+            boolean sentenceEnd = segmenter.accept(c, charClass);
+
+            if (i == length || sentenceEnd) {
+                if (text != null) {
+                    sentences.addTrimmed(0, text, sentenceStart, i);
+                } else {
+                    sentences.addTrimmedUtf8(0, utf8, sentenceStart, i);
+                }
+
+                sentenceStart = i;
+                sentenceInitial = true;
+                sentiment.sentenceEnd();
+            }
+        }
+
+        // false, если в блоке есть не-ASCII символы и его надо пройти по символам
+        boolean asciiBlock(int from) throws IOException {
+            text.getChars(from, from + VECTOR_BLOCK, block, 0);
+
+            if (!scanner.scan(block)) {
+                return false;
+            }
+
+            long letters = scanner.letters();
+            int p = 0;
+
+            while (p < VECTOR_BLOCK) {
+                if ((letters >>> p & 1) != 0) {
+                    // буквы не завершают ни слово, ни предложение — всю серию отдаём токенизатору и сегментатору разом
+                    int end = p + Long.numberOfTrailingZeros(~(letters >>> p));
+                    tokenizer.acceptLetters(scanner.lowered(), p, end, scanner.upper() >>> p, from + p);
+                    segmenter.acceptLetters(scanner.lowered(), p, end, scanner.upper() >>> p);
+                    p = end;
+                } else {
+                    char c = block[p];
+                    accept(c, classOf(c), from + p);
+                    p++;
+                }
+            }
+
+            return true;
+        }
+
+        void flush() throws IOException {
+            copyUpTo(length);
+        }
+
+        Result result() {
+            sentences.sortByLength();
+
+            Result result = new Result();
+            result.wordCount = wordCount;
+            result.wordCounts = wordCounts;
+            result.positiveCount = sentiment.positive();
+            result.negativeCount = sentiment.negative();
+            result.sentences = sentences;
+            return result;
+        }
+
+        private void completeWord() throws IOException {
+            int slot = wordCounts.increment(tokenizer.buffer(), tokenizer.length(), tokenizer.hash());
+
+            if (wordCounts.count(slot) == 1) {
+                wordCounts.setTag(slot, lexicon.termId(wordCounts.key(slot)));
+            }
+
+            wordCount++;
+            sentiment.accept(wordCounts.tag(slot));
+
+            int nameLength = tokenizer.capitalizedLength();
+
+            if (nameLength > 0 && names.isName(tokenizer.buffer(), nameLength, tokenizer.capitalizedHash(), sentenceInitial)) {
+                copyUpTo(tokenizer.wordStart());
+
+                if (text != null) {
+                    anonymizedOut.append(names.placeholder());
+                } else {
+                    anonymizedUtf8Out.write(names.placeholderUtf8());
+                }
+
+                copiedUpTo = tokenizer.capitalizedEnd();
+            }
+
+            sentenceInitial = false;
+        }
+
+        private void copyUpTo(int end) throws IOException {
+            if (text != null) {
+                anonymizedOut.append(text, copiedUpTo, end);
+            } else {
+                anonymizedUtf8Out.write(utf8, copiedUpTo, end - copiedUpTo);
+            }
+
+            copiedUpTo = end;
+        }
+    }
+
+    private static boolean vectorSupported() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+
+        try {
+            return new AsciiVectorScanner().scan(new char[VECTOR_BLOCK]);
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    private static boolean crossCheck(String text) {
+        try {
+            return crossCheck(text, NameAnonymizer.withDefaultNames("<NAME>"), SentimentLexicon.defaultLexicon());
+        } catch (RuntimeException | LinkageError e) {
+            return false;
+        }
+    }
+
+    // слова на границах блоков, апострофы, цифры, не-ASCII и смена регистра
+    private static String controlText() {
+        StringBuilder text = new StringBuilder();
+        String[] pieces = {
+                "The day John met Mary. ", "\"Hello,\" said Alice to Bob! ", "Bob's friend went to Paris on Monday? ",
+                "It is not good, it is great. ", "rock'n'roll ", "x1y abc_def 42 ", "McDonald ", "O'Neil's ",
+                "Ёжик и Мария пошли домой. ", "naïve café ", "''quoted'' ", "ALLCAPS MiXeD lower. ", "\n\n"
+        };
+
+        for (int i = 0; text.length() < 16 * VECTOR_BLOCK; i++) {
+            text.append(pieces[i % pieces.length]);
+
+            if (i % 7 == 0) {
+                text.append('a');
+            }
+        }
+
+        text.append("Supercalifragilisticexpialidociousandthensomemorelettersuntilthewordislongerthanoneblock end.");
+        return text.toString();
+    }
+}
@@ -0,0 +1,377 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+// Чтение .gz без распаковки на диск. Члены gzip (блоки BGZF или склеенные файлы .gz) распаковываются
+// в пуле с опережением, а читатель получает их по порядку — распаковка идёт одновременно с разбиением
+// и анализом. Начала членов берутся из индекса <файл>.gzi, из заголовков BGZF (поле BSIZE)
+// или поиском заголовков 1f 8b 08. Найденное поиском проверяется цепочкой: член принимается, только если
+// предыдущий закончился ровно на нём, и сошлись CRC32 и длина. Если цепочка рвётся или член
+// слишком велик для опережения, остаток файла читается обычным GZIPInputStream.
+public class GzipInput {
+    private static final int MAX_SPECULATIVE_MEMBER = 16 << 20;
+    private static final int INPUT_BLOCK = 64 * 1024;
+    private static final long MIN_SCAN_SEGMENT = 4L << 20;
+
+    private record Member(byte[] data, long end) {
+    }
+
+    public static boolean isGzip(Path path) {
+        return path.getFileName().toString().endsWith(".gz");
+    }
+
+    // для файлов не .gz — обычный поток
+    public static InputStream open(Path path) throws IOException {
+        if (!isGzip(path)) {
+            return Files.newInputStream(path);
+        }
+
+        MappedFile file = MappedFile.open(path);
+
+        if (!isHeader(file, 0)) {
+            throw new IOException("Not in GZIP format: " + path);
+        }
+
+        return new ParallelInflateStream(path, file, memberOffsets(path, file));
+    }
+
+    private static long[] memberOffsets(Path path, MappedFile file) throws IOException {
+        Path index = path.resolveSibling(path.getFileName() + ".gzi");
+
+        if (Files.isRegularFile(index)) {
+            return indexOffsets(index);
+        }
+
+        long[] blocks = bgzfOffsets(file);
+        return blocks != null ? blocks : scanHeaders(file);
+    }
+
+    // индекс bgzip: число записей, затем пары (сжатое смещение, несжатое смещение), всё uint64 little-endian
+    private static long[] indexOffsets(Path index) throws IOException {
+        ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(index)).order(ByteOrder.LITTLE_ENDIAN);
+        int count = (int) entries.getLong();
+        long[] offsets = new long[count + 1];
+
+        for (int i = 1; i <= count; i++) {
+            offsets[i] = entries.getLong();
+            entries.getLong();
+        }
+
+        return offsets;
+    }
+
+    // null, если хотя бы один член — не блок BGZF
+    private static long[] bgzfOffsets(MappedFile file) {
+        long[] offsets = new long[16];
+        int count = 0;
+        long offset = 0;
+
+        while (offset < file.size()) {
+            int blockSize = bgzfBlockSize(file, offset);
+
+            if (blockSize < 0) {
+                return null;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+
+            offsets[count++] = offset;
+            offset += blockSize;
+        }
+
+        return Arrays.copyOf(offsets, count);
+    }
+
+    // BSIZE + 1 из подполя BC дополнительного поля заголовка или -1
+    private static int bgzfBlockSize(MappedFile file, long offset) {
+        if (!isHeader(file, offset) || (file.byteAt(offset + 3) & 0x04) == 0) {
+            return -1;
+        }
+
+        long position = offset + 12;
+        long end = Math.min(file.size(), position + uint16(file, offset + 10));
+
+        while (position + 4 <= end) {
+            int length = uint16(file, position + 2);
+
+            if (file.byteAt(position) == 'B' && file.byteAt(position + 1) == 'C' && length == 2 && position + 6 <= end) {
+                return uint16(file, position + 4) + 1;
+            }
+
+            position += 4 + length;
+        }
+
+        return -1;
+    }
+
+    // кандидаты в начала членов; сегменты файла просматриваются параллельно
+    private static long[] scanHeaders(MappedFile file) {
+        long size = file.size();
+        int segments = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4L, size / MIN_SCAN_SEGMENT));
+        long[][] found = new long[segments][];
+
+        IntStream.range(0, segments).parallel().forEach(k -> {
+            long[] offsets = new long[16];
+            int count = 0;
+
+            for (long position = size * k / segments; position < size * (k + 1) / segments; position++) {
+                if (file.byteAt(position) == 0x1F && isHeader(file, position)) {
+                    if (count == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    }
+                    offsets[count++] = position;
+                }
+            }
+
+            found[k] = Arrays.copyOf(offsets, count);
+        });
+
+        return Arrays.stream(found).flatMapToLong(Arrays::stream).toArray();
+    }
+
+    // сигнатура, метод deflate, нулевые зарезервированные флаги и допустимые XFL и OS
+    private static boolean isHeader(MappedFile file, long offset) {
+        if (offset + 18 > file.size()) {
+            return false;
+        }
+
+        int flags = file.byteAt(offset + 3) & 0xFF;
+        int extraFlags = file.byteAt(offset + 8) & 0xFF;
+        int os = file.byteAt(offset + 9) & 0xFF;
+
+        return file.byteAt(offset) == 0x1F && file.byteAt(offset + 1) == (byte) 0x8B && file.byteAt(offset + 2) == 8
+                && (flags & 0xE0) == 0
+                && (extraFlags == 0 || extraFlags == 2 || extraFlags == 4)
+                && (os <= 13 || os == 255);
+    }
+
+    // null, если по этому смещению нет корректного члена или он длиннее limit
+    private static Member inflate(MappedFile file, long offset, int limit) {
+        long size = file.size();
+        int flags = file.byteAt(offset + 3);
+        long position = offset + 10;
+
+        if ((flags & 0x04) != 0) {
+            position += 2 + uint16(file, position);
+        }
+        if ((flags & 0x08) != 0) {
+            position = afterZero(file, position);
+        }
+        if ((flags & 0x10) != 0) {
+            position = afterZero(file, position);
+        }
+        if ((flags & 0x02) != 0) {
+            position += 2;
+        }
+
+        Inflater inflater = new Inflater(true);
+        byte[] out = new byte[INPUT_BLOCK];
+        int length = 0;
+
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (position >= size) {
+                        return null;
+                    }
+
+                    int count = (int) Math.min(INPUT_BLOCK, size - position);
+                    inflater.setInput(file.read(position, count));
+                    position += count;
+                } else if (inflater.needsDictionary()) {
+                    return null;
+                }
+
+                if (length == out.length) {
+                    if (length >= limit) {
+                        return null;
+                    }
+                    out = Arrays.copyOf(out, Math.min(limit, length * 2));
+                }
+
+                length += inflater.inflate(out, length, out.length - length);
+            }
+
+            long trailer = position - inflater.getRemaining();
+
+            if (trailer + 8 > size) {
+                return null;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(out, 0, length);
+
+            if (crc.getValue() != uint32(file, trailer) || (length & 0xFFFFFFFFL) != uint32(file, trailer + 4)) {
+                return null;
+            }
+
+            return new Member(Arrays.copyOf(out, length), trailer + 8);
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // имя и комментарий в заголовке заканчиваются нулевым байтом
+    private static long afterZero(MappedFile file, long position) {
+        while (position < file.size() && file.byteAt(position) != 0) {
+            position++;
+        }
+        return position + 1;
+    }
+
+    private static int uint16(MappedFile file, long offset) {
+        return (file.byteAt(offset) & 0xFF) | (file.byteAt(offset + 1) & 0xFF) << 8;
+    }
+
+    private static long uint32(MappedFile file, long offset) {
+        return uint16(file, offset) | (long) uint16(file, offset + 2) << 16;
+    }
+
+    private static class ParallelInflateStream extends InputStream {
+        private final Path path;
+        private final MappedFile file;
+        private final long[] offsets;
+        private final int window;
+        private final ExecutorService pool;
+        private final Map<Integer, Future<Member>> pending = new HashMap<>();
+
+        private int nextSubmitted;
+        private long expected;
+        private byte[] current = new byte[0];
+        private int position;
+        private InputStream sequential;
+
+        ParallelInflateStream(Path path, MappedFile file, long[] offsets) {
+            int threads = Runtime.getRuntime().availableProcessors();
+
+            this.path = path;
+            this.file = file;
+            this.offsets = offsets;
+            this.window = threads * 2;
+            this.pool = Executors.newFixedThreadPool(threads);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+
+            while (sequential == null && position == current.length) {
+                if (!nextMember()) {
+                    return -1;
+                }
+            }
+
+            if (sequential != null) {
+                return sequential.read(buffer, offset, length);
+            }
+
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        // false в конце файла; после члена допускается мусор, как в GZIPInputStream
+        private boolean nextMember() throws IOException {
+            if (!isHeader(file, expected)) {
+                pool.shutdownNow();
+                return false;
+            }
+
+            int found = Arrays.binarySearch(offsets, expected);
+            int index = found >= 0 ? found : -found - 1;
+
+            // кандидаты до index оказались внутри уже прочитанных членов
+            pending.entrySet().removeIf(entry -> {
+                if (entry.getKey() >= index) {
+                    return false;
+                }
+                entry.getValue().cancel(true);
+                return true;
+            });
+            nextSubmitted = Math.max(nextSubmitted, index);
+            submitAhead();
+
+            // члена нет среди известных начал (неполный индекс) — распаковываем его здесь же
+            Member member = found >= 0 ? await(pending.remove(index)) : inflate(file, expected, MAX_SPECULATIVE_MEMBER);
+            submitAhead();
+
+            if (member == null) {
+                switchToSequential();
+                return true;
+            }
+
+            current = member.data();
+            position = 0;
+            expected = member.end();
+            return true;
+        }
+
+        private void submitAhead() {
+            while (pending.size() < window && nextSubmitted < offsets.length) {
+                long offset = offsets[nextSubmitted];
+                pending.put(nextSubmitted++, pool.submit(() -> inflate(file, offset, MAX_SPECULATIVE_MEMBER)));
+            }
+        }
+
+        private Member await(Future<Member> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while inflating " + path);
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+
+        // ошибка сжатых данных, если она есть, всплывёт здесь с обычным сообщением GZIPInputStream
+        private void switchToSequential() throws IOException {
+            pool.shutdownNow();
+            pending.clear();
+
+            InputStream raw = new BufferedInputStream(Files.newInputStream(path), INPUT_BLOCK);
+            raw.skipNBytes(expected);
+            sequential = new GZIPInputStream(raw, INPUT_BLOCK);
+        }
+
+        @Override
+        public void close() throws IOException {
+            pool.shutdownNow();
+
+            if (sequential != null) {
+                sequential.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+// Вход из нескольких файлов: каталог (рекурсивно), маска вида corpus/*.txt или corpus/**.gz либо один файл.
+// Файлы идут в порядке путей и читаются как один поток, где между файлами стоит пустая строка, —
+// то же, что склеить их заранее, но без лишнего прохода по данным. Небольшие файлы целиком читает
+// ограниченный пул с опережением, поэтому много мелких файлов оказываются в общих секциях.
+public class InputFiles {
+    private static final int PREFETCH_FILE_LIMIT = 8 << 20;
+    private static final long PREFETCH_BYTES = 64L << 20;
+    private static final int GZIP_RATIO = 8;
+    private static final byte[] SEPARATOR = {'\n', '\n'};
+
+    public static List<Path> resolve(String input) throws IOException {
+        Path path = Path.of(input);
+
+        if (Files.isRegularFile(path)) {
+            return List.of(path);
+        }
+        if (Files.isDirectory(path)) {
+            return listFiles(path, p -> true);
+        }
+
+        int wildcard = firstWildcard(input);
+
+        if (wildcard < 0) {
+            throw new IOException("Input not found: " + input);
+        }
+
+        int separator = input.lastIndexOf('/', wildcard);
+        Path base = Path.of(separator < 0 ? "." : input.substring(0, separator + 1));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + (separator < 0 ? "./" + input : input));
+        List<Path> files = listFiles(base, matcher::matches);
+
+        if (files.isEmpty()) {
+            throw new IOException("No input files match " + input);
+        }
+
+        return files;
+    }
+
+    public static boolean anyGzip(List<Path> files) {
+        return files.stream().anyMatch(GzipInput::isGzip);
+    }
+
+    public static InputStream open(List<Path> files) throws IOException {
+        return files.size() == 1 ? GzipInput.open(files.get(0)) : new ConcatenatedStream(files);
+    }
+
+    // индексы .gzi — служебные файлы, а не текст
+    private static List<Path> listFiles(Path directory, PathMatcher matcher) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            return walk.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().endsWith(".gzi"))
+                    .filter(matcher::matches)
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static int firstWildcard(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static class ConcatenatedStream extends InputStream {
+        // content == null — большой файл, он читается потоком, когда до него дойдёт очередь
+        private record Prefetch(Future<byte[]> content, long size) {
+        }
+
+        private final List<Path> files;
+        private final ExecutorService readers;
+        private final ArrayDeque<Prefetch> prefetched = new ArrayDeque<>();
+
+        private int nextPrefetched;
+        private long prefetchedBytes;
+        private int nextFile;
+
+        private byte[] current = new byte[0];
+        private int position;
+        private byte[] next;
+        private InputStream stream;
+
+        ConcatenatedStream(List<Path> files) throws IOException {
+            this.files = files;
+            this.readers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+            prefetch();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        // порядок источников: разделитель, затем прочитанное заранее содержимое или поток большого файла
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+
+            while (true) {
+                if (position < current.length) {
+                    int count = Math.min(length, current.length - position);
+                    System.arraycopy(current, position, buffer, offset, count);
+                    position += count;
+                    return count;
+                }
+
+                if (next != null) {
+                    current = next;
+                    position = 0;
+                    next = null;
+                } else if (stream != null) {
+                    int read = stream.read(buffer, offset, length);
+
+                    if (read >= 0) {
+                        return read;
+                    }
+
+                    stream.close();
+                    stream = null;
+                } else if (nextFile < files.size()) {
+                    nextFile();
+                } else {
+                    return -1;
+                }
+            }
+        }
+
+        private void nextFile() throws IOException {
+            Prefetch file = prefetched.poll();
+            byte[] content = file.content() != null ? await(file.content()) : null;
+
+            prefetchedBytes -= file.size();
+            current = nextFile > 0 ? SEPARATOR : new byte[0];
+            position = 0;
+            next = content;
+
+            if (content == null) {
+                stream = GzipInput.open(files.get(nextFile));
+            }
+
+            nextFile++;
+            prefetch();
+        }
+
+        // размер .gz после распаковки неизвестен, для бюджета он оценивается с запасом
+        private void prefetch() throws IOException {
+            while (nextPrefetched < files.size() && prefetchedBytes < PREFETCH_BYTES) {
+                Path file = files.get(nextPrefetched++);
+                long size = Files.size(file) * (GzipInput.isGzip(file) ? GZIP_RATIO : 1);
+
+                if (size > PREFETCH_FILE_LIMIT) {
+                    prefetched.add(new Prefetch(null, 0));
+                } else {
+                    prefetchedBytes += size;
+                    prefetched.add(new Prefetch(readers.submit(() -> read(file)), size));
+                }
+            }
+        }
+
+        private byte[] await(Future<byte[]> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading input files");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            readers.shutdownNow();
+
+            if (stream != null) {
+                stream.close();
+            }
+        }
+
+        // небольшие файлы и так распаковываются параллельно друг другу — свой пул на каждый не нужен
+        private static byte[] read(Path file) throws IOException {
+            try (InputStream in = GzipInput.isGzip(file) ? new GZIPInputStream(Files.newInputStream(file)) : Files.newInputStream(file)) {
+                return in.readAllBytes();
+            }
+        }
+    }
+}
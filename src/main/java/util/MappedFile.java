@@ -0,0 +1,70 @@
+package util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Файл, отображённый в память сегментами по 1 ГБ. Отображения кэшируются по пути,
+// поэтому продюсер и воркеры одного процесса читают одну и ту же память без копий в куче.
+public class MappedFile {
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    private static final Map<Path, MappedFile> OPEN = new ConcurrentHashMap<>();
+
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    private MappedFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.size = channel.size();
+            this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+
+            for (int i = 0; i < segments.length; i++) {
+                long offset = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(1L << SEGMENT_BITS, size - offset));
+            }
+        }
+    }
+
+    public static MappedFile open(Path path) {
+        return OPEN.computeIfAbsent(path.toAbsolutePath().normalize(), p -> {
+            try {
+                return new MappedFile(p);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public byte byteAt(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+    }
+
+    // копия [offset, offset + length) — единственная копия текста секции в куче
+    public byte[] read(long offset, int length) {
+        byte[] bytes = new byte[length];
+        int copied = 0;
+
+        while (copied < length) {
+            long position = offset + copied;
+            MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+            int inSegment = (int) (position & SEGMENT_MASK);
+            int count = Math.min(length - copied, segment.capacity() - inSegment);
+
+            segment.get(inSegment, bytes, copied, count);
+            copied += count;
+        }
+
+        return bytes;
+    }
+}
@@ -0,0 +1,452 @@
+package util;
+
+import config.AppConfig.ChunkBy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntSupplier;
+import java.util.stream.IntStream;
+
+// Разбиение отображённого файла на диапазоны (смещение, длина) без копирования текста.
+// Границы секций те же, что у TextSplitter, но секция — исходный кусок файла как есть:
+// строки внутри не склеиваются через пробел, переводы строк остаются на месте.
+public class MappedSplitter {
+    private static final long MIN_SEGMENT = 4L << 20;
+
+    public record Range(long offset, int length) {
+    }
+
+    public static Iterator<Range> splitRanges(MappedFile file, ChunkBy chunkBy, int chunkSize) {
+        return splitRanges(file, chunkBy, () -> chunkSize);
+    }
+
+    // размер запрашивается перед каждым диапазоном; границы зависят от прошлых размеров, поэтому только последовательно
+    public static Iterator<Range> splitRanges(MappedFile file, ChunkBy chunkBy, IntSupplier chunkSizes) {
+        switch (chunkBy) {
+            case PARAGRAPHS:
+                return new ParagraphRanges(file, chunkSizes);
+            case SENTENCES:
+                return new SentenceRanges(file, chunkSizes);
+            case BYTES:
+            default:
+                return new ByteRanges(file, chunkSizes);
+        }
+    }
+
+    // Те же диапазоны, что у splitRanges, но файл режется на сегменты, и каждый поток ищет границы в своём.
+    // Последовательно склеиваются только найденные границы, а не байты файла.
+    public static List<Range> splitRangesParallel(MappedFile file, ChunkBy chunkBy, int chunkSize) {
+        long size = file.size();
+        int segments = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4L, size / MIN_SEGMENT));
+        long[] bounds = new long[segments + 1];
+
+        for (int k = 0; k <= segments; k++) {
+            bounds[k] = size * k / segments;
+        }
+
+        switch (chunkBy) {
+            case PARAGRAPHS:
+                return paragraphRangesParallel(file, bounds, chunkSize);
+            case SENTENCES:
+                return sentenceRangesParallel(file, bounds, chunkSize);
+            case BYTES:
+            default:
+                // границы зависят только от предыдущей и ищутся за O(1) — считать параллельно нечего
+                List<Range> ranges = new ArrayList<>();
+                new ByteRanges(file, () -> chunkSize).forEachRemaining(ranges::add);
+                return ranges;
+        }
+    }
+
+    // Сегмент сдвигается к началу строки; в нём ищутся текстовые куски (подряд идущие непустые строки)
+    // и серии пустых строк. Дальше — тот же автомат, что в ParagraphRanges, но по этим событиям.
+    private static List<Range> paragraphRangesParallel(MappedFile file, long[] bounds, int chunkSize) {
+        int segments = bounds.length - 1;
+        long[] lineBounds = new long[bounds.length];
+
+        IntStream.rangeClosed(0, segments).parallel().forEach(k -> lineBounds[k] = lineStartAtOrAfter(file, bounds[k]));
+
+        // в событиях: текст — пара (начало, конец) с началом >= 0, серия из n пустых строк — одно число -n
+        long[][] events = new long[segments][];
+        IntStream.range(0, segments).parallel().forEach(k -> events[k] = paragraphEvents(file, lineBounds[k], lineBounds[k + 1]));
+
+        List<Range> ranges = new ArrayList<>();
+        long chunkStart = -1;
+        long chunkEnd = -1;
+        int paragraphCount = 0;
+
+        for (long[] segmentEvents : events) {
+            for (int i = 0; i < segmentEvents.length; i++) {
+                long event = segmentEvents[i];
+
+                if (event >= 0) {
+                    if (chunkStart < 0) {
+                        chunkStart = event;
+                    }
+                    chunkEnd = segmentEvents[++i];
+                } else if (chunkStart >= 0) {
+                    long blankLines = -event;
+
+                    if (paragraphCount + blankLines >= chunkSize) {
+                        ranges.add(rangeOf(chunkStart, chunkEnd));
+                        chunkStart = -1;
+                        paragraphCount = 0;
+                    } else {
+                        paragraphCount += (int) blankLines;
+                    }
+                }
+            }
+        }
+
+        if (chunkStart >= 0) {
+            ranges.add(rangeOf(chunkStart, chunkEnd));
+        }
+
+        return ranges;
+    }
+
+    private static long[] paragraphEvents(MappedFile file, long from, long to) {
+        long size = file.size();
+        long[] events = new long[16];
+        int count = 0;
+        long position = from;
+
+        while (position < to) {
+            long lineStart = position;
+            long lineEnd = lineStart;
+
+            while (lineEnd < size && file.byteAt(lineEnd) != '\n' && file.byteAt(lineEnd) != '\r') {
+                lineEnd++;
+            }
+
+            position = lineEnd;
+            if (position < size && file.byteAt(position++) == '\r' && position < size && file.byteAt(position) == '\n') {
+                position++;
+            }
+
+            long start = lineStart;
+            long end = lineEnd;
+
+            while (start < end && (file.byteAt(start) & 0xFF) <= ' ') {
+                start++;
+            }
+            while (end > start && (file.byteAt(end - 1) & 0xFF) <= ' ') {
+                end--;
+            }
+
+            if (count + 2 > events.length) {
+                events = Arrays.copyOf(events, events.length * 2);
+            }
+
+            if (start == end) {
+                if (count > 0 && events[count - 1] < 0) {
+                    events[count - 1]--;
+                } else {
+                    events[count++] = -1;
+                }
+            } else if (count >= 2 && events[count - 1] >= 0) {
+                // непустые строки подряд — один кусок текста
+                events[count - 1] = end;
+            } else {
+                events[count++] = start;
+                events[count++] = end;
+            }
+        }
+
+        return Arrays.copyOf(events, count);
+    }
+
+    private static long lineStartAtOrAfter(MappedFile file, long position) {
+        long size = file.size();
+
+        for (; position > 0 && position < size; position++) {
+            byte previous = file.byteAt(position - 1);
+
+            if (previous == '\n' || (previous == '\r' && file.byteAt(position) != '\n')) {
+                return position;
+            }
+        }
+
+        return position;
+    }
+
+    // Сегмент сдвигается за ближайший пробельный символ: после него SentenceSegmenter в том же состоянии,
+    // что и новый, и концы предложений в сегменте не зависят от предыдущих.
+    // Первый проход считает концы в сегментах, второй по сдвигам находит каждый chunkSize-й.
+    private static List<Range> sentenceRangesParallel(MappedFile file, long[] sizeBounds, int chunkSize) {
+        int segments = sizeBounds.length - 1;
+        long[] bounds = new long[sizeBounds.length];
+        long[] counts = new long[segments + 1];
+
+        IntStream.rangeClosed(0, segments).parallel().forEach(k -> bounds[k] = spaceEndAtOrAfter(file, sizeBounds[k]));
+        IntStream.range(0, segments).parallel().forEach(k -> counts[k + 1] = sentenceEnds(file, bounds[k], bounds[k + 1], 0, chunkSize, null));
+
+        for (int k = 0; k < segments; k++) {
+            counts[k + 1] += counts[k];
+        }
+
+        long[][] cuts = new long[segments][];
+        IntStream.range(0, segments).parallel().forEach(k -> {
+            long first = counts[k];
+            int segmentCuts = (int) ((first + counts[k + 1] - counts[k]) / chunkSize - first / chunkSize);
+            cuts[k] = new long[segmentCuts];
+            sentenceEnds(file, bounds[k], bounds[k + 1], first, chunkSize, cuts[k]);
+        });
+
+        List<Range> ranges = new ArrayList<>();
+        long size = file.size();
+        long previous = 0;
+
+        for (long[] segmentCuts : cuts) {
+            for (long cut : segmentCuts) {
+                ranges.add(rangeOf(skipSpaces(file, previous), cut));
+                previous = cut;
+            }
+        }
+
+        long start = skipSpaces(file, previous);
+
+        if (start < size) {
+            long end = size;
+
+            while ((file.byteAt(end - 1) & 0xFF) <= ' ') {
+                end--;
+            }
+
+            ranges.add(rangeOf(start, end));
+        }
+
+        return ranges;
+    }
+
+    // число концов предложений в [from, to); если cuts != null, туда пишутся концы с номером,
+    // кратным chunkSize (нумерация с firstIndex + 1)
+    private static long sentenceEnds(MappedFile file, long from, long to, long firstIndex, int chunkSize, long[] cuts) {
+        SentenceSegmenter segmenter = new SentenceSegmenter();
+        long count = 0;
+        int cutCount = 0;
+
+        for (long position = from; position < to; position++) {
+            if (segmenter.accept(file.byteAt(position))) {
+                count++;
+
+                if (cuts != null && (firstIndex + count) % chunkSize == 0) {
+                    cuts[cutCount++] = position;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    // первая позиция не раньше position сразу после пробельного символа (\s), начало или конец файла
+    private static long spaceEndAtOrAfter(MappedFile file, long position) {
+        long size = file.size();
+
+        for (; position > 0 && position < size; position++) {
+            byte previous = file.byteAt(position - 1);
+
+            if (previous == ' ' || (previous >= '\t' && previous <= '\r')) {
+                return position;
+            }
+        }
+
+        return position;
+    }
+
+    private static long skipSpaces(MappedFile file, long position) {
+        long size = file.size();
+
+        while (position < size && (file.byteAt(position) & 0xFF) <= ' ') {
+            position++;
+        }
+
+        return position;
+    }
+
+    private static Range rangeOf(long from, long to) {
+        if (to - from > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Chunk is larger than 2 GB: " + from + ".." + to);
+        }
+
+        return new Range(from, (int) (to - from));
+    }
+
+    private abstract static class RangeIterator implements Iterator<Range> {
+        protected final MappedFile file;
+        protected final long size;
+        private final IntSupplier chunkSizes;
+        protected int chunkSize;
+        protected long position;
+        private Range nextRange;
+
+        RangeIterator(MappedFile file, IntSupplier chunkSizes) {
+            this.file = file;
+            this.size = file.size();
+            this.chunkSizes = chunkSizes;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextRange == null && position < size) {
+                chunkSize = Math.max(1, chunkSizes.getAsInt());
+                nextRange = readNextRange();
+            }
+
+            return nextRange != null;
+        }
+
+        @Override
+        public Range next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            Range result = nextRange;
+            nextRange = null;
+            return result;
+        }
+
+        // null, если до конца файла больше нет текста
+        protected abstract Range readNextRange();
+
+        protected boolean isSpace(long at) {
+            return (file.byteAt(at) & 0xFF) <= ' ';
+        }
+
+        protected Range range(long from, long to) {
+            return rangeOf(from, to);
+        }
+    }
+
+    // абзацы разделены пустыми строками (из пробельных символов), как в TextSplitter.ParagraphSplitter
+    private static class ParagraphRanges extends RangeIterator {
+        ParagraphRanges(MappedFile file, IntSupplier chunkSizes) {
+            super(file, chunkSizes);
+        }
+
+        @Override
+        protected Range readNextRange() {
+            long chunkStart = -1;
+            long chunkEnd = -1;
+            int paragraphCount = 0;
+
+            while (position < size) {
+                long lineStart = position;
+                long lineEnd = lineStart;
+
+                while (lineEnd < size && file.byteAt(lineEnd) != '\n' && file.byteAt(lineEnd) != '\r') {
+                    lineEnd++;
+                }
+
+                position = lineEnd;
+                if (position < size && file.byteAt(position++) == '\r' && position < size && file.byteAt(position) == '\n') {
+                    position++;
+                }
+
+                long start = lineStart;
+                long end = lineEnd;
+
+                while (start < end && isSpace(start)) {
+                    start++;
+                }
+                while (end > start && isSpace(end - 1)) {
+                    end--;
+                }
+
+                if (start == end) {
+                    if (chunkStart >= 0 && ++paragraphCount >= chunkSize) {
+                        return range(chunkStart, chunkEnd);
+                    }
+                } else {
+                    if (chunkStart < 0) {
+                        chunkStart = start;
+                    }
+                    chunkEnd = end;
+                }
+            }
+
+            return chunkStart >= 0 ? range(chunkStart, chunkEnd) : null;
+        }
+    }
+
+    // границы предложений ищет SentenceSegmenter, как в TextSplitter.SentenceSplitter
+    private static class SentenceRanges extends RangeIterator {
+        private final SentenceSegmenter segmenter = new SentenceSegmenter();
+
+        SentenceRanges(MappedFile file, IntSupplier chunkSizes) {
+            super(file, chunkSizes);
+        }
+
+        @Override
+        protected Range readNextRange() {
+            long chunkStart = -1;
+            long chunkEnd = -1;
+            int sentenceCount = 0;
+
+            while (sentenceCount < chunkSize) {
+                // пробелы перед предложением не могут закончить его, но состояние сегментатора двигают
+                while (position < size && isSpace(position)) {
+                    segmenter.accept(file.byteAt(position++));
+                }
+
+                if (position == size) {
+                    break;
+                }
+
+                if (chunkStart < 0) {
+                    chunkStart = position;
+                }
+
+                while (position < size && !segmenter.accept(file.byteAt(position))) {
+                    position++;
+                }
+
+                if (position < size) {
+                    chunkEnd = position++;
+                } else {
+                    chunkEnd = position;
+
+                    while (isSpace(chunkEnd - 1)) {
+                        chunkEnd--;
+                    }
+                }
+
+                sentenceCount++;
+            }
+
+            return chunkStart >= 0 ? range(chunkStart, chunkEnd) : null;
+        }
+    }
+
+    // по chunkSize байт, граница сдвигается назад к началу многобайтового символа
+    private static class ByteRanges extends RangeIterator {
+        ByteRanges(MappedFile file, IntSupplier chunkSizes) {
+            super(file, chunkSizes);
+        }
+
+        @Override
+        protected Range readNextRange() {
+            long start = position;
+            long end = Math.min(size, start + chunkSize);
+
+            if (end < size) {
+                long cut = end;
+
+                while (cut > start && (file.byteAt(cut) & 0xC0) == 0x80) {
+                    cut--;
+                }
+
+                if (cut > start) {
+                    end = cut;
+                }
+            }
+
+            position = end;
+            return range(start, end);
+        }
+    }
+}
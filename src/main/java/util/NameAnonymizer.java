@@ -0,0 +1,111 @@
+package util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Замена имён: слово вида "Заглавная + строчные" считается именем, если оно есть в справочнике имён,
+// либо если оно стоит не в начале предложения и не входит в список исключений.
+// Справочник — таблица с поиском по окну char[] и фильтром Блума перед ней.
+public class NameAnonymizer {
+    private static final String NAMES_RESOURCE = "/names.txt";
+    private static final String EXCLUSIONS_RESOURCE = "/name-exclusions.txt";
+
+    private final String placeholder;
+    private final byte[] placeholderUtf8;
+    private final WordCounter names = new WordCounter();
+    private final WordCounter exclusions = new WordCounter();
+    private final long[] bloom;
+    private final int bloomMask;
+
+    private NameAnonymizer(String placeholder, Reader namesSource, Reader exclusionsSource) throws IOException {
+        this.placeholder = placeholder;
+        this.placeholderUtf8 = placeholder.getBytes(StandardCharsets.UTF_8);
+
+        readWords(namesSource, names);
+        readWords(exclusionsSource, exclusions);
+
+        int bits = Integer.highestOneBit(Math.max(64, names.size() * 16 - 1)) << 1;
+        this.bloom = new long[bits / 64];
+        this.bloomMask = bits - 1;
+
+        names.forEach((name, count) -> {
+            int hash = name.hashCode();
+            bloom[(hash & bloomMask) >>> 6] |= 1L << hash;
+            int second = secondHash(hash);
+            bloom[(second & bloomMask) >>> 6] |= 1L << second;
+        });
+    }
+
+    public static NameAnonymizer load(Path namesPath, String placeholder) throws IOException {
+        try (Reader names = namesPath == null ? resource(NAMES_RESOURCE) : Files.newBufferedReader(namesPath);
+             Reader exclusions = resource(EXCLUSIONS_RESOURCE)) {
+            return new NameAnonymizer(placeholder, names, exclusions);
+        }
+    }
+
+    public static NameAnonymizer withDefaultNames(String placeholder) {
+        try {
+            return load(null, placeholder);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String placeholder() {
+        return placeholder;
+    }
+
+    public byte[] placeholderUtf8() {
+        return placeholderUtf8;
+    }
+
+    // folded — слово в нижнем регистре, length/hash — его часть вида "Заглавная + строчные"
+    public boolean isName(char[] folded, int length, int hash, boolean sentenceInitial) {
+        if (mightBeKnownName(hash) && names.find(folded, length, hash) >= 0) {
+            return true;
+        }
+
+        return !sentenceInitial && exclusions.find(folded, length, hash) < 0;
+    }
+
+    private boolean mightBeKnownName(int hash) {
+        int second = secondHash(hash);
+        return (bloom[(hash & bloomMask) >>> 6] & 1L << hash) != 0
+                && (bloom[(second & bloomMask) >>> 6] & 1L << second) != 0;
+    }
+
+    private static int secondHash(int hash) {
+        int mixed = hash * 0x85EBCA6B;
+        return mixed ^ (mixed >>> 15);
+    }
+
+    private static Reader resource(String name) throws IOException {
+        InputStream in = NameAnonymizer.class.getResourceAsStream(name);
+
+        if (in == null) {
+            throw new IOException("Resource not found: " + name);
+        }
+
+        return new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    private static void readWords(Reader source, WordCounter target) throws IOException {
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                target.add(line.toLowerCase(), 1);
+            }
+        }
+    }
+}
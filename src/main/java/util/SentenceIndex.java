@@ -0,0 +1,296 @@
+package util;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Предложения как записи (секция, начало, длина) в примитивных массивах.
+// Текст предложения не копируется: он берётся из текста секции только при записи результата.
+// Секция задаётся строкой или байтами UTF-8; во втором случае начало — байтовое смещение,
+// а длина всё равно в символах, чтобы порядок сортировки не зависел от представления.
+public class SentenceIndex {
+    private static final int RADIX_BITS = 16;
+    // длины не меньше MAX_BUCKETS - 1 попадают в последнюю корзину и досортировываются отдельно
+    private static final int MAX_BUCKETS = 1 << 20;
+    private static final int MIN_PARALLEL_MERGE = 1 << 16;
+
+    private CharSequence[] texts = new CharSequence[16];
+    private byte[][] utf8Texts = new byte[16][];
+    private int[] chunks = new int[64];
+    private int[] starts = new int[64];
+    private int[] lengths = new int[64];
+    private int size;
+
+    public SentenceIndex() {
+    }
+
+    private SentenceIndex(int capacity) {
+        chunks = new int[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+    }
+
+    public void setText(int chunk, CharSequence text) {
+        ensureChunk(chunk);
+        texts[chunk] = text;
+    }
+
+    public void setUtf8Text(int chunk, byte[] text) {
+        ensureChunk(chunk);
+        utf8Texts[chunk] = text;
+    }
+
+    private void ensureChunk(int chunk) {
+        if (chunk >= texts.length) {
+            texts = Arrays.copyOf(texts, Math.max(chunk + 1, texts.length * 2));
+            utf8Texts = Arrays.copyOf(utf8Texts, texts.length);
+        }
+    }
+
+    public void add(int chunk, int start, int length) {
+        if (size == chunks.length) {
+            chunks = Arrays.copyOf(chunks, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+        }
+
+        chunks[size] = chunk;
+        starts[size] = start;
+        lengths[size] = length;
+        size++;
+    }
+
+    // добавляет предложение [from, to) без пробельных символов по краям
+    public void addTrimmed(int chunk, CharSequence text, int from, int to) {
+        while (from < to && text.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+
+        if (from < to) {
+            add(chunk, from, to - from);
+        }
+    }
+
+    // то же для байтов UTF-8 [from, to); пробельные символы ASCII не встречаются внутри многобайтовых
+    public void addTrimmedUtf8(int chunk, byte[] text, int from, int to) {
+        while (from < to && (text[from] & 0xFF) <= ' ') {
+            from++;
+        }
+        while (to > from && (text[to - 1] & 0xFF) <= ' ') {
+            to--;
+        }
+
+        if (from < to) {
+            add(chunk, from, Utf8Decoder.charLength(text, from, to));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int chunk(int i) {
+        return chunks[i];
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    public CharSequence text(int i) {
+        return texts[chunks[i]];
+    }
+
+    // null, если секция задана байтами
+    public byte[] utf8Text(int i) {
+        return utf8Texts[chunks[i]];
+    }
+
+    public String sentence(int i) {
+        CharSequence text = text(i);
+
+        if (text != null) {
+            return text.subSequence(starts[i], starts[i] + lengths[i]).toString();
+        }
+
+        StringBuilder sentence = new StringBuilder(lengths[i]);
+        Utf8Decoder decoder = new Utf8Decoder().reset(utf8Text(i), starts[i], utf8Text(i).length);
+
+        while (sentence.length() < lengths[i]) {
+            sentence.append(decoder.next());
+        }
+
+        return sentence.toString();
+    }
+
+    public int[] startsArray() {
+        return Arrays.copyOf(starts, size);
+    }
+
+    public int[] lengthsArray() {
+        return Arrays.copyOf(lengths, size);
+    }
+
+    // Слияние отсортированных по длине списков секций за линейное время: гистограмма длин,
+    // затем раскладка по местам. Диапазоны корзин раскладываются параллельно, порядок как у
+    // устойчивой сортировки: длина, номер секции, позиция в секции.
+    public static SentenceIndex mergeByLength(CharSequence[] texts, byte[][] utf8Texts, int[][] starts, int[][] lengths) {
+        int total = 0;
+        int maxLength = 0;
+
+        for (int[] chunkLengths : lengths) {
+            if (chunkLengths != null && chunkLengths.length > 0) {
+                total += chunkLengths.length;
+                maxLength = Math.max(maxLength, chunkLengths[chunkLengths.length - 1]);
+            }
+        }
+
+        int buckets = Math.min(maxLength, MAX_BUCKETS - 1) + 1;
+        int[] offsets = new int[buckets + 1];
+
+        for (int[] chunkLengths : lengths) {
+            if (chunkLengths != null) {
+                for (int length : chunkLengths) {
+                    offsets[Math.min(length, buckets - 1) + 1]++;
+                }
+            }
+        }
+        for (int b = 0; b < buckets; b++) {
+            offsets[b + 1] += offsets[b];
+        }
+
+        SentenceIndex result = new SentenceIndex(Math.max(total, 16));
+        result.texts = Arrays.copyOf(texts, Math.max(texts.length, 1));
+        result.utf8Texts = Arrays.copyOf(utf8Texts, result.texts.length);
+        result.size = total;
+
+        // границы диапазонов корзин с примерно равным числом предложений
+        int parts = total < MIN_PARALLEL_MERGE ? 1 : Runtime.getRuntime().availableProcessors();
+        int[] bounds = new int[parts + 1];
+        bounds[parts] = buckets;
+
+        for (int p = 1, b = 0; p < parts; p++) {
+            long target = (long) total * p / parts;
+
+            while (b < buckets && offsets[b] < target) {
+                b++;
+            }
+
+            bounds[p] = b;
+        }
+
+        int[] cursors = Arrays.copyOf(offsets, buckets);
+        IntStream.range(0, parts).parallel()
+                .forEach(p -> result.scatter(bounds[p], bounds[p + 1], buckets, cursors, starts, lengths));
+
+        if (maxLength >= buckets) {
+            result.sortTail(offsets[buckets - 1]);
+        }
+
+        return result;
+    }
+
+    // раскладывает предложения с корзинами из [fromBucket, toBucket); у каждого диапазона свои курсоры
+    private void scatter(int fromBucket, int toBucket, int buckets, int[] cursors, int[][] chunkStarts, int[][] chunkLengths) {
+        if (fromBucket >= toBucket) {
+            return;
+        }
+
+        for (int chunk = 0; chunk < chunkLengths.length; chunk++) {
+            int[] sourceLengths = chunkLengths[chunk];
+
+            if (sourceLengths == null) {
+                continue;
+            }
+
+            int[] sourceStarts = chunkStarts[chunk];
+            int from = lowerBound(sourceLengths, fromBucket);
+            int to = toBucket == buckets ? sourceLengths.length : lowerBound(sourceLengths, toBucket);
+
+            for (int i = from; i < to; i++) {
+                int target = cursors[Math.min(sourceLengths[i], buckets - 1)]++;
+                chunks[target] = chunk;
+                starts[target] = sourceStarts[i];
+                lengths[target] = sourceLengths[i];
+            }
+        }
+    }
+
+    // последняя корзина собирает самые длинные предложения вперемешку — досортировываем её
+    private void sortTail(int from) {
+        SentenceIndex tail = new SentenceIndex(Math.max(size - from, 16));
+
+        for (int i = from; i < size; i++) {
+            tail.add(chunks[i], starts[i], lengths[i]);
+        }
+
+        tail.sortByLength();
+
+        System.arraycopy(tail.chunks, 0, chunks, from, tail.size);
+        System.arraycopy(tail.starts, 0, starts, from, tail.size);
+        System.arraycopy(tail.lengths, 0, lengths, from, tail.size);
+    }
+
+    private static int lowerBound(int[] sorted, int key) {
+        int low = 0;
+        int high = sorted.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (sorted[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    // устойчивая сортировка по длине: подсчётом, для длинных предложений — LSD по 16 бит
+    public void sortByLength() {
+        int maxLength = 0;
+
+        for (int i = 0; i < size; i++) {
+            maxLength = Math.max(maxLength, lengths[i]);
+        }
+
+        for (int shift = 0; shift < Integer.SIZE && (shift == 0 || maxLength >>> shift != 0); shift += RADIX_BITS) {
+            scatter(shift, Math.min(1 << RADIX_BITS, (maxLength >>> shift) + 1));
+        }
+    }
+
+    private void scatter(int shift, int buckets) {
+        int mask = (1 << RADIX_BITS) - 1;
+        int[] offsets = new int[buckets + 1];
+
+        for (int i = 0; i < size; i++) {
+            offsets[((lengths[i] >>> shift) & mask) + 1]++;
+        }
+        for (int b = 0; b < buckets; b++) {
+            offsets[b + 1] += offsets[b];
+        }
+
+        int[] sortedChunks = new int[chunks.length];
+        int[] sortedStarts = new int[starts.length];
+        int[] sortedLengths = new int[lengths.length];
+
+        for (int i = 0; i < size; i++) {
+            int target = offsets[(lengths[i] >>> shift) & mask]++;
+            sortedChunks[target] = chunks[i];
+            sortedStarts[target] = starts[i];
+            sortedLengths[target] = lengths[i];
+        }
+
+        chunks = sortedChunks;
+        starts = sortedStarts;
+        lengths = sortedLengths;
+    }
+}
@@ -0,0 +1,123 @@
+package util;
+
+import java.util.Arrays;
+
+import static util.WordTokenizer.*;
+
+// Потоковый поиск границ предложений: символы подаются по одному, решение принимается сразу
+// и смотрит только назад, поэтому весь текст проходится один раз. Граница — пробельный символ
+// после [.!?] (как [.!?]\s+), кроме точки после сокращения: обращения и титулы (Mr., Dr.),
+// цепочки одиночных букв с точками (e.g., U.S.) и инициалы (J. Smith). Десятичные дроби (3.14)
+// не режутся, потому что за точкой идёт цифра. Сокращения распознаются только в ASCII:
+// остальные символы для автомата — разделители, так что байты UTF-8 можно подавать как есть.
+public class SentenceSegmenter {
+    private static final int MAX_LETTERS = 8;
+
+    private static final char[][] ABBREVIATIONS = {
+            "mr".toCharArray(), "mrs".toCharArray(), "ms".toCharArray(), "dr".toCharArray(),
+            "prof".toCharArray(), "sr".toCharArray(), "jr".toCharArray(), "st".toCharArray(),
+            "vs".toCharArray(), "mt".toCharArray(), "gen".toCharArray(), "col".toCharArray(),
+            "lt".toCharArray(), "sgt".toCharArray(), "capt".toCharArray(), "rev".toCharArray(),
+            "gov".toCharArray(), "sen".toCharArray(), "rep".toCharArray(), "fig".toCharArray(),
+            "approx".toCharArray(), "dept".toCharArray(), "cf".toCharArray()
+    };
+
+    // слово из букв ASCII и одиночных точек перед текущим символом: первые MAX_LETTERS букв в нижнем регистре
+    private final char[] letters = new char[MAX_LETTERS];
+    private int letterCount;
+    private int segmentLength;
+    private int segments;
+    private boolean singleLetters;
+    private boolean firstUpper;
+    private boolean inToken;
+
+    private boolean abbreviation;
+    private int previousClass = OTHER;
+    private boolean previousDot;
+
+    // true, если перед символом c закончилось предложение; charClass — WordTokenizer.classOf(c)
+    public boolean accept(char c, int charClass) {
+        boolean boundary = false;
+
+        if (charClass == LETTER && c < 128) {
+            letter((char) (c | 0x20), c <= 'Z');
+        } else {
+            if (charClass == TERMINATOR) {
+                abbreviation = c == '.' && previousClass == LETTER && isAbbreviation();
+                // точка после буквы продолжает цепочку вида e.g., после другого знака — нет
+                inToken = c == '.' && previousClass == LETTER;
+            } else {
+                boundary = charClass == SPACE && previousClass == TERMINATOR && !abbreviation;
+                inToken = false;
+            }
+
+            previousClass = charClass == LETTER ? OTHER : charClass;
+            previousDot = c == '.';
+        }
+
+        return boundary;
+    }
+
+    // байт UTF-8: всё, что не ASCII, — просто не буква
+    public boolean accept(byte b) {
+        return b >= 0 ? accept((char) b, classOf((char) b)) : accept('\u0080', OTHER);
+    }
+
+    // то же, что accept для каждой буквы ASCII из lowered[from, to); бит 0 в upper — заглавная ли lowered[from]
+    public void acceptLetters(char[] lowered, int from, int to, long upper) {
+        letter(lowered[from], (upper & 1) != 0);
+
+        for (int i = from + 1; i < to; i++) {
+            letter(lowered[i], false);
+        }
+    }
+
+    private void letter(char lower, boolean upper) {
+        if (previousClass != LETTER) {
+            if (!inToken || !previousDot) {
+                letterCount = 0;
+                segments = 0;
+                singleLetters = true;
+                firstUpper = upper;
+            }
+
+            segments++;
+            segmentLength = 0;
+            inToken = true;
+        }
+
+        if (++segmentLength > 1) {
+            singleLetters = false;
+        }
+        if (letterCount < MAX_LETTERS) {
+            letters[letterCount] = lower;
+        }
+        if (letterCount <= MAX_LETTERS) {
+            letterCount++;
+        }
+
+        previousClass = LETTER;
+        previousDot = false;
+    }
+
+    private boolean isAbbreviation() {
+        if (letterCount > MAX_LETTERS) {
+            return false;
+        }
+        if (segments > 1) {
+            return singleLetters;
+        }
+        if (letterCount == 1) {
+            // инициал, но не местоимение I в конце предложения
+            return firstUpper && letters[0] != 'i';
+        }
+
+        for (char[] abbreviation : ABBREVIATIONS) {
+            if (abbreviation.length == letterCount && Arrays.equals(abbreviation, 0, letterCount, letters, 0, letterCount)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,363 @@
+package util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Лексикон тональности, скомпилированный в автомат Ахо-Корасик над словами:
+// переходы идут по номерам слов, поэтому фразы из нескольких слов распознаются
+// по ходу токенизации без повторных проходов. Формат файла: "фраза<TAB>1|-1|neg".
+public class SentimentLexicon {
+    private static final String DEFAULT_RESOURCE = "/lexicon.tsv";
+    private static final int NEGATION_WINDOW = 3;
+    private static final int ROOT = 0;
+    private static final int NO_NEGATION = Integer.MAX_VALUE / 2;
+
+    private static volatile SentimentLexicon defaultLexicon;
+
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private boolean[] negators = new boolean[16];
+
+    // trie: переходы (state, termId) -> state в открытой адресации
+    private long[] transitionKeys = new long[64];
+    private int[] transitionTargets = new int[64];
+    private int transitionCount;
+
+    private int stateCount = 1;
+    private int[] fail = new int[16];
+    private int[] polarity = new int[16];       // тональность самой длинной фразы, заканчивающейся в состоянии
+    private int[] phraseLength = new int[16];
+
+    private SentimentLexicon() {
+        Arrays.fill(transitionKeys, -1L);
+    }
+
+    public static SentimentLexicon defaultLexicon() {
+        SentimentLexicon lexicon = defaultLexicon;
+
+        if (lexicon == null) {
+            try (InputStream in = SentimentLexicon.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+                if (in == null) {
+                    throw new IOException("Lexicon resource not found: " + DEFAULT_RESOURCE);
+                }
+
+                lexicon = parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            defaultLexicon = lexicon;
+        }
+
+        return lexicon;
+    }
+
+    public static SentimentLexicon load(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path)) {
+            return parse(reader);
+        }
+    }
+
+    private static SentimentLexicon parse(Reader source) throws IOException {
+        SentimentLexicon lexicon = new SentimentLexicon();
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            int tab = line.lastIndexOf('\t');
+
+            if (tab < 0) {
+                throw new IOException("Malformed lexicon line: " + line);
+            }
+
+            List<String> words = tokenize(line.substring(0, tab));
+            String score = line.substring(tab + 1).trim();
+
+            if (words.isEmpty()) {
+                continue;
+            }
+
+            if (score.equals("neg")) {
+                for (String word : words) {
+                    int termId = lexicon.termIdOrCreate(word);
+                    lexicon.negators[termId] = true;
+                }
+            } else {
+                lexicon.addPhrase(words, Integer.signum(Integer.parseInt(score)));
+            }
+        }
+
+        lexicon.buildFailureLinks();
+        return lexicon;
+    }
+
+    // номер слова в лексиконе или -1; вызывается один раз на новое слово секции
+    public int termId(String word) {
+        Integer termId = termIds.get(word);
+        return termId == null ? -1 : termId;
+    }
+
+    public Matcher matcher() {
+        return new Matcher();
+    }
+
+    public class Matcher {
+        private int state = ROOT;
+        private int sinceNegator = NO_NEGATION;
+        private long positive;
+        private long negative;
+
+        public void accept(int termId) {
+            sinceNegator++;
+
+            if (termId < 0) {
+                state = ROOT;
+                return;
+            }
+
+            state = next(state, termId);
+
+            int score = polarity[state];
+
+            if (score != 0) {
+                // отрицание действует на фразу, если само не входит в неё
+                if (sinceNegator <= NEGATION_WINDOW && phraseLength[state] <= sinceNegator) {
+                    score = -score;
+                    sinceNegator = NO_NEGATION;
+                }
+
+                if (score > 0) {
+                    positive++;
+                } else {
+                    negative++;
+                }
+            }
+
+            if (negators[termId]) {
+                sinceNegator = 0;
+            }
+        }
+
+        public void sentenceEnd() {
+            state = ROOT;
+            sinceNegator = NO_NEGATION;
+        }
+
+        public long positive() {
+            return positive;
+        }
+
+        public long negative() {
+            return negative;
+        }
+    }
+
+    private static List<String> tokenize(String phrase) {
+        List<String> words = new ArrayList<>();
+        WordTokenizer tokenizer = new WordTokenizer();
+        int length = phrase.length();
+
+        for (int i = 0; i <= length; i++) {
+            boolean completed;
+
+            if (i < length) {
+                char c = phrase.charAt(i);
+                completed = tokenizer.accept(c, WordTokenizer.classOf(c), i);
+            } else {
+                completed = tokenizer.finish(i);
+            }
+
+            if (completed) {
+                words.add(new String(tokenizer.buffer(), 0, tokenizer.length()));
+            }
+        }
+
+        return words;
+    }
+
+    private int termIdOrCreate(String word) {
+        Integer termId = termIds.get(word);
+
+        if (termId == null) {
+            termId = termIds.size();
+            termIds.put(word, termId);
+
+            if (termId == negators.length) {
+                negators = Arrays.copyOf(negators, termId * 2);
+            }
+        }
+
+        return termId;
+    }
+
+    private void addPhrase(List<String> words, int score) {
+        int state = ROOT;
+
+        for (String word : words) {
+            int termId = termIdOrCreate(word);
+            int target = transition(state, termId);
+
+            if (target < 0) {
+                target = newState();
+                putTransition(state, termId, target);
+            }
+
+            state = target;
+        }
+
+        polarity[state] = score;
+        phraseLength[state] = words.size();
+    }
+
+    private int newState() {
+        if (stateCount == fail.length) {
+            fail = Arrays.copyOf(fail, stateCount * 2);
+            polarity = Arrays.copyOf(polarity, stateCount * 2);
+            phraseLength = Arrays.copyOf(phraseLength, stateCount * 2);
+        }
+
+        return stateCount++;
+    }
+
+    private void buildFailureLinks() {
+        int[][] children = new int[stateCount][];
+        int[][] childTerms = new int[stateCount][];
+        collectChildren(children, childTerms);
+
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+
+        for (int child : children[ROOT]) {
+            fail[child] = ROOT;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+
+            for (int i = 0; i < children[state].length; i++) {
+                int child = children[state][i];
+                int termId = childTerms[state][i];
+                int fallback = fail[state];
+
+                while (fallback != ROOT && transition(fallback, termId) < 0) {
+                    fallback = fail[fallback];
+                }
+
+                int target = transition(fallback, termId);
+                fail[child] = target >= 0 && target != child ? target : ROOT;
+
+                // в состоянии без своей фразы выдаём самую длинную фразу-суффикс
+                if (polarity[child] == 0) {
+                    polarity[child] = polarity[fail[child]];
+                    phraseLength[child] = phraseLength[fail[child]];
+                }
+
+                queue.add(child);
+            }
+        }
+    }
+
+    private int next(int state, int termId) {
+        while (true) {
+            int target = transition(state, termId);
+
+            if (target >= 0) {
+                return target;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+
+            state = fail[state];
+        }
+    }
+
+    private void collectChildren(int[][] children, int[][] childTerms) {
+        int[] childCount = new int[stateCount];
+
+        for (long key : transitionKeys) {
+            if (key != -1L) {
+                childCount[(int) (key >>> 32)]++;
+            }
+        }
+        for (int state = 0; state < stateCount; state++) {
+            children[state] = new int[childCount[state]];
+            childTerms[state] = new int[childCount[state]];
+            childCount[state] = 0;
+        }
+        for (int i = 0; i < transitionKeys.length; i++) {
+            if (transitionKeys[i] != -1L) {
+                int state = (int) (transitionKeys[i] >>> 32);
+                children[state][childCount[state]] = transitionTargets[i];
+                childTerms[state][childCount[state]++] = (int) transitionKeys[i];
+            }
+        }
+    }
+
+    private int transition(int state, int termId) {
+        long key = (long) state << 32 | termId;
+        int slot = slotFor(key, transitionKeys.length - 1);
+
+        while (transitionKeys[slot] != -1L) {
+            if (transitionKeys[slot] == key) {
+                return transitionTargets[slot];
+            }
+
+            slot = (slot + 1) & (transitionKeys.length - 1);
+        }
+
+        return -1;
+    }
+
+    private void putTransition(int state, int termId, int target) {
+        if ((transitionCount + 1) * 2 > transitionKeys.length) {
+            long[] oldKeys = transitionKeys;
+            int[] oldTargets = transitionTargets;
+
+            transitionKeys = new long[oldKeys.length * 2];
+            transitionTargets = new int[oldKeys.length * 2];
+            Arrays.fill(transitionKeys, -1L);
+            transitionCount = 0;
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != -1L) {
+                    putTransition((int) (oldKeys[i] >>> 32), (int) oldKeys[i], oldTargets[i]);
+                }
+            }
+        }
+
+        long key = (long) state << 32 | termId;
+        int slot = slotFor(key, transitionKeys.length - 1);
+
+        while (transitionKeys[slot] != -1L) {
+            slot = (slot + 1) & (transitionKeys.length - 1);
+        }
+
+        transitionKeys[slot] = key;
+        transitionTargets[slot] = target;
+        transitionCount++;
+    }
+
+    private static int slotFor(long key, int mask) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & mask;
+    }
+}
@@ -6,31 +6,36 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.IntSupplier;
 
 public class TextSplitter {
     public static Iterator<String> splitStream(BufferedReader reader, ChunkBy chunkBy, int chunkSize) {
+        return splitStream(reader, chunkBy, () -> chunkSize);
+    }
+
+    // размер запрашивается перед каждой секцией и может меняться по ходу чтения
+    public static Iterator<String> splitStream(BufferedReader reader, ChunkBy chunkBy, IntSupplier chunkSizes) {
         switch (chunkBy) {
             case PARAGRAPHS:
-                return new ParagraphSplitter(reader, chunkSize);
+                return new ParagraphSplitter(reader, chunkSizes);
             case SENTENCES:
-                return new SentenceSplitter(reader, chunkSize);
+                return new SentenceSplitter(reader, chunkSizes);
             case BYTES:
             default:
-                return new ByteSplitter(reader, chunkSize);
+                return new ByteSplitter(reader, chunkSizes);
         }
     }
 
     private abstract static class StreamSplitter implements Iterator<String> {
         protected final BufferedReader reader;
-        protected final int chunkSize;
+        private final IntSupplier chunkSizes;
+        protected int chunkSize;
         protected String nextChunk;
         protected boolean hasNext = true;
 
-        public StreamSplitter(BufferedReader reader, int chunkSize) {
+        public StreamSplitter(BufferedReader reader, IntSupplier chunkSizes) {
             this.reader = reader;
-            this.chunkSize = chunkSize;
+            this.chunkSizes = chunkSizes;
             this.nextChunk = null;
         }
 
@@ -43,6 +48,7 @@ public class TextSplitter {
                 return false;
             }
             try {
+                chunkSize = Math.max(1, chunkSizes.getAsInt());
                 nextChunk = readNextChunk();
                 if (nextChunk == null) {
                     hasNext = false;
@@ -73,8 +79,8 @@ public class TextSplitter {
         private final StringBuilder currentChunk = new StringBuilder();
         private int paragraphCount = 0;
 
-        public ParagraphSplitter(BufferedReader reader, int chunkSize) {
-            super(reader, chunkSize);
+        public ParagraphSplitter(BufferedReader reader, IntSupplier chunkSizes) {
+            super(reader, chunkSizes);
         }
 
         @Override
@@ -111,26 +117,38 @@ public class TextSplitter {
         }
     }
 
+    // Каждый символ подаётся SentenceSegmenter ровно один раз. Готовые предложения удаляются из буфера
+    // только перед дочитыванием строки, и каждый символ сдвигается не больше одного раза — в сумме O(n).
     private static class SentenceSplitter extends StreamSplitter {
         private final StringBuilder currentChunk = new StringBuilder();
         private final StringBuilder buffer = new StringBuilder();
+        private final SentenceSegmenter segmenter = new SentenceSegmenter();
+        private int sentenceStart = 0;
+        private int scanned = 0;
         private int sentenceCount = 0;
-        private static final Pattern SENTENCE_PATTERN = Pattern.compile("[.!?]\\s+");
 
-        public SentenceSplitter(BufferedReader reader, int chunkSize) {
-            super(reader, chunkSize);
+        public SentenceSplitter(BufferedReader reader, IntSupplier chunkSizes) {
+            super(reader, chunkSizes);
         }
 
         @Override
         protected String readNextChunk() throws IOException {
             while (sentenceCount < chunkSize) {
-                if (buffer.isEmpty()) {
+                if (scanned == buffer.length()) {
                     String line = reader.readLine();
 
                     if (line == null) {
+                        appendSentence(sentenceStart, buffer.length(), ". ");
+                        buffer.setLength(0);
+                        sentenceStart = 0;
+                        scanned = 0;
                         break;
                     }
 
+                    buffer.delete(0, sentenceStart);
+                    scanned -= sentenceStart;
+                    sentenceStart = 0;
+
                     buffer.append(line.trim());
 
                     if (!buffer.isEmpty()) {
@@ -140,51 +158,14 @@ public class TextSplitter {
                     continue;
                 }
 
-                String bufferText = buffer.toString();
-                Matcher matcher = SENTENCE_PATTERN.matcher(bufferText);
-
-                if (matcher.find()) {
-                    int splitPosition = matcher.end();
-                    String sentence = bufferText.substring(0, splitPosition).trim();
-
-                    if (!sentence.isEmpty()) {
-                        if (!currentChunk.isEmpty()) {
-                            currentChunk.append(" ");
-                        }
-
-                        currentChunk.append(sentence);
-                        sentenceCount++;
-                    }
-
-                    buffer.delete(0, splitPosition);
-                } else {
-                    String line = reader.readLine();
-
-                    if (line == null) {
-                        if (!buffer.isEmpty()) {
-                            String finalSentence = buffer.toString().trim();
-
-                            if (!finalSentence.isEmpty()) {
-                                if (!currentChunk.isEmpty()) {
-                                    currentChunk.append(". ");
-                                }
-
-                                currentChunk.append(finalSentence);
-                                sentenceCount++;
-                            }
-
-                            buffer.setLength(0);
-                        }
-
-                        break;
-                    }
-
-                    buffer.append(line.trim());
+                char c = buffer.charAt(scanned);
 
-                    if (!buffer.isEmpty()) {
-                        buffer.append(" ");
-                    }
+                if (segmenter.accept(c, WordTokenizer.classOf(c))) {
+                    appendSentence(sentenceStart, scanned, " ");
+                    sentenceStart = scanned;
                 }
+
+                scanned++;
             }
 
             if (sentenceCount >= chunkSize || (buffer.isEmpty() && !currentChunk.isEmpty())) {
@@ -196,6 +177,25 @@ public class TextSplitter {
 
             return null;
         }
+
+        // buffer[from, to) без пробельных символов по краям, как String.trim
+        private void appendSentence(int from, int to, String separator) {
+            while (from < to && buffer.charAt(from) <= ' ') {
+                from++;
+            }
+            while (to > from && buffer.charAt(to - 1) <= ' ') {
+                to--;
+            }
+
+            if (from < to) {
+                if (!currentChunk.isEmpty()) {
+                    currentChunk.append(separator);
+                }
+
+                currentChunk.append(buffer, from, to);
+                sentenceCount++;
+            }
+        }
     }
 
     private static class ByteSplitter extends StreamSplitter {
@@ -204,8 +204,8 @@ public class TextSplitter {
         private int bufferSize = 0;
         private boolean eof = false;
 
-        public ByteSplitter(BufferedReader reader, int chunkSize) {
-            super(reader, chunkSize);
+        public ByteSplitter(BufferedReader reader, IntSupplier chunkSizes) {
+            super(reader, chunkSizes);
         }
 
         @Override
@@ -0,0 +1,112 @@
+package util;
+
+// Пошаговый декодер UTF-8: выдаёт символы UTF-16 по одному, не создавая строк.
+// Некорректная последовательность даёт U+FFFD и сдвиг на один байт.
+public class Utf8Decoder {
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private byte[] bytes;
+    private int position;
+    private int end;
+    private int charStart;
+    private char pendingLowSurrogate;
+
+    public Utf8Decoder reset(byte[] bytes, int from, int to) {
+        this.bytes = bytes;
+        this.position = from;
+        this.end = to;
+        this.charStart = from;
+        this.pendingLowSurrogate = 0;
+        return this;
+    }
+
+    public boolean hasNext() {
+        return pendingLowSurrogate != 0 || position < end;
+    }
+
+    public char next() {
+        if (pendingLowSurrogate != 0) {
+            char low = pendingLowSurrogate;
+            pendingLowSurrogate = 0;
+            return low;
+        }
+
+        charStart = position;
+        int b = bytes[position++];
+
+        if (b >= 0) {
+            return (char) b;
+        }
+
+        int codePoint;
+        int continuation;
+        int min;
+
+        if ((b & 0xE0) == 0xC0) {
+            codePoint = b & 0x1F;
+            continuation = 1;
+            min = 0x80;
+        } else if ((b & 0xF0) == 0xE0) {
+            codePoint = b & 0x0F;
+            continuation = 2;
+            min = 0x800;
+        } else if ((b & 0xF8) == 0xF0) {
+            codePoint = b & 0x07;
+            continuation = 3;
+            min = 0x10000;
+        } else {
+            return REPLACEMENT;
+        }
+
+        if (end - position < continuation) {
+            return REPLACEMENT;
+        }
+
+        for (int i = 0; i < continuation; i++) {
+            int next = bytes[position + i];
+
+            if ((next & 0xC0) != 0x80) {
+                return REPLACEMENT;
+            }
+
+            codePoint = codePoint << 6 | (next & 0x3F);
+        }
+
+        if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            return REPLACEMENT;
+        }
+
+        position += continuation;
+
+        if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            pendingLowSurrogate = Character.lowSurrogate(codePoint);
+            return Character.highSurrogate(codePoint);
+        }
+
+        return (char) codePoint;
+    }
+
+    // байтовое смещение, с которого начинается последний выданный символ
+    public int charStart() {
+        return charStart;
+    }
+
+    // байтовое смещение после последнего прочитанного символа
+    public int position() {
+        return position;
+    }
+
+    // длина отрезка [from, to) в символах UTF-16
+    public static int charLength(byte[] bytes, int from, int to) {
+        Utf8Decoder decoder = new Utf8Decoder().reset(bytes, from, to);
+        int length = 0;
+
+        while (decoder.hasNext()) {
+            decoder.next();
+            length++;
+        }
+
+        return length;
+    }
+}
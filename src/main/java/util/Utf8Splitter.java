@@ -0,0 +1,388 @@
+package util;
+
+import config.AppConfig.ChunkBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntSupplier;
+
+// Те же разбиения, что в TextSplitter, но над байтами UTF-8: секции остаются byte[] и не декодируются.
+// Пробельные символы и разделители строк — ASCII, поэтому trim и поиск границ работают по байтам.
+// BYTES режет по chunkSize байт, не разрывая многобайтовые символы.
+public class Utf8Splitter {
+    public static Iterator<byte[]> splitStream(InputStream in, ChunkBy chunkBy, int chunkSize) {
+        return splitStream(in, chunkBy, () -> chunkSize);
+    }
+
+    public static Iterator<byte[]> splitStream(InputStream in, ChunkBy chunkBy, IntSupplier chunkSizes) {
+        switch (chunkBy) {
+            case PARAGRAPHS:
+                return new ParagraphSplitter(in, chunkSizes);
+            case SENTENCES:
+                return new SentenceSplitter(in, chunkSizes);
+            case BYTES:
+            default:
+                return new ByteSplitter(in, chunkSizes);
+        }
+    }
+
+    private abstract static class StreamSplitter implements Iterator<byte[]> {
+        protected final InputStream in;
+        private final IntSupplier chunkSizes;
+        protected int chunkSize;
+        protected byte[] nextChunk;
+        protected boolean hasNext = true;
+
+        public StreamSplitter(InputStream in, IntSupplier chunkSizes) {
+            this.in = in;
+            this.chunkSizes = chunkSizes;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextChunk != null) {
+                return true;
+            }
+            if (!hasNext) {
+                return false;
+            }
+            try {
+                chunkSize = Math.max(1, chunkSizes.getAsInt());
+                nextChunk = readNextChunk();
+                if (nextChunk == null) {
+                    hasNext = false;
+                    return false;
+                }
+                return true;
+            } catch (IOException e) {
+                hasNext = false;
+                throw new UncheckedIOException("Error reading from stream", e);
+            }
+        }
+
+        @Override
+        public byte[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            byte[] result = nextChunk;
+            nextChunk = null;
+            return result;
+        }
+
+        protected abstract byte[] readNextChunk() throws IOException;
+    }
+
+    private static class ParagraphSplitter extends StreamSplitter {
+        private final LineReader lines;
+        private final Bytes currentChunk = new Bytes();
+        private int paragraphCount = 0;
+
+        public ParagraphSplitter(InputStream in, IntSupplier chunkSizes) {
+            super(in, chunkSizes);
+            this.lines = new LineReader(in);
+        }
+
+        @Override
+        protected byte[] readNextChunk() throws IOException {
+            while (lines.readLine()) {
+                int start = lines.trimmedStart();
+                int end = lines.trimmedEnd();
+
+                if (start == end) {
+                    if (!currentChunk.isEmpty()) {
+                        paragraphCount++;
+
+                        if (paragraphCount >= chunkSize) {
+                            byte[] result = currentChunk.toTrimmedArray();
+                            currentChunk.clear();
+                            paragraphCount = 0;
+                            return result;
+                        }
+                    }
+                } else {
+                    if (!currentChunk.isEmpty()) {
+                        currentChunk.append((byte) ' ');
+                    }
+                    currentChunk.append(lines.line(), start, end);
+                }
+            }
+
+            if (!currentChunk.isEmpty()) {
+                byte[] result = currentChunk.toTrimmedArray();
+                currentChunk.clear();
+                return result;
+            }
+
+            return null;
+        }
+    }
+
+    // как TextSplitter.SentenceSplitter: каждый байт подаётся SentenceSegmenter один раз
+    private static class SentenceSplitter extends StreamSplitter {
+        private final LineReader lines;
+        private final Bytes currentChunk = new Bytes();
+        private final Bytes buffer = new Bytes();
+        private final SentenceSegmenter segmenter = new SentenceSegmenter();
+        private int sentenceStart = 0;
+        private int scanned = 0;
+        private int sentenceCount = 0;
+
+        public SentenceSplitter(InputStream in, IntSupplier chunkSizes) {
+            super(in, chunkSizes);
+            this.lines = new LineReader(in);
+        }
+
+        @Override
+        protected byte[] readNextChunk() throws IOException {
+            while (sentenceCount < chunkSize) {
+                if (scanned == buffer.length()) {
+                    if (!lines.readLine()) {
+                        appendSentence(sentenceStart, buffer.length(), true);
+                        buffer.clear();
+                        sentenceStart = 0;
+                        scanned = 0;
+                        break;
+                    }
+
+                    buffer.deleteHead(sentenceStart);
+                    scanned -= sentenceStart;
+                    sentenceStart = 0;
+
+                    buffer.append(lines.line(), lines.trimmedStart(), lines.trimmedEnd());
+
+                    if (!buffer.isEmpty()) {
+                        buffer.append((byte) ' ');
+                    }
+
+                    continue;
+                }
+
+                if (segmenter.accept(buffer.array()[scanned])) {
+                    appendSentence(sentenceStart, scanned, false);
+                    sentenceStart = scanned;
+                }
+
+                scanned++;
+            }
+
+            if (sentenceCount >= chunkSize || (buffer.isEmpty() && !currentChunk.isEmpty())) {
+                byte[] result = currentChunk.toArray();
+                currentChunk.clear();
+                sentenceCount = 0;
+                return result;
+            }
+
+            return null;
+        }
+
+        // хвост без терминатора в конце потока присоединяется через ". ", как в TextSplitter
+        private void appendSentence(int from, int to, boolean last) {
+            int start = trimStart(buffer.array(), from, to);
+            int end = trimEnd(buffer.array(), start, to);
+
+            if (start < end) {
+                if (!currentChunk.isEmpty()) {
+                    if (last) {
+                        currentChunk.append((byte) '.');
+                    }
+                    currentChunk.append((byte) ' ');
+                }
+
+                currentChunk.append(buffer.array(), start, end);
+                sentenceCount++;
+            }
+        }
+    }
+
+    private static class ByteSplitter extends StreamSplitter {
+        private byte[] carry = new byte[0];
+        private boolean eof = false;
+
+        public ByteSplitter(InputStream in, IntSupplier chunkSizes) {
+            super(in, chunkSizes);
+        }
+
+        @Override
+        protected byte[] readNextChunk() throws IOException {
+            if (eof && carry.length == 0) {
+                return null;
+            }
+
+            byte[] chunk = Arrays.copyOf(carry, Math.max(chunkSize, carry.length));
+            int size = carry.length;
+
+            while (size < chunk.length && !eof) {
+                int read = in.read(chunk, size, chunk.length - size);
+
+                if (read == -1) {
+                    eof = true;
+                } else {
+                    size += read;
+                }
+            }
+
+            int cut = eof ? size : completeSequencesEnd(chunk, size);
+            carry = Arrays.copyOfRange(chunk, cut, size);
+
+            return cut > 0 ? Arrays.copyOf(chunk, cut) : null;
+        }
+
+        // граница перед незавершённым многобайтовым символом в конце буфера
+        private static int completeSequencesEnd(byte[] bytes, int size) {
+            for (int i = size - 1; i >= Math.max(0, size - 3); i--) {
+                int b = bytes[i] & 0xFF;
+
+                if (b < 0x80) {
+                    return size;
+                }
+                if (b >= 0xC0) {
+                    int sequenceLength = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+                    return i + sequenceLength <= size || i == 0 ? size : i;
+                }
+            }
+
+            return size;
+        }
+    }
+
+    // строки как BufferedReader.readLine: разделители \n, \r и \r\n
+    private static class LineReader {
+        private final InputStream in;
+        private final byte[] input = new byte[64 * 1024];
+        private int inputPosition;
+        private int inputSize;
+        private boolean skipLineFeed;
+
+        private final Bytes line = new Bytes();
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        boolean readLine() throws IOException {
+            line.clear();
+            boolean any = false;
+
+            while (true) {
+                if (inputPosition == inputSize) {
+                    inputSize = in.read(input);
+                    inputPosition = 0;
+
+                    if (inputSize <= 0) {
+                        inputSize = 0;
+                        return any;
+                    }
+                }
+
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+
+                    if (input[inputPosition] == '\n') {
+                        inputPosition++;
+                        continue;
+                    }
+                }
+
+                int start = inputPosition;
+
+                while (inputPosition < inputSize && input[inputPosition] != '\n' && input[inputPosition] != '\r') {
+                    inputPosition++;
+                }
+
+                line.append(input, start, inputPosition);
+                any = true;
+
+                if (inputPosition < inputSize) {
+                    skipLineFeed = input[inputPosition] == '\r';
+                    inputPosition++;
+                    return true;
+                }
+            }
+        }
+
+        byte[] line() {
+            return line.array();
+        }
+
+        int trimmedStart() {
+            return trimStart(line.array(), 0, line.length());
+        }
+
+        int trimmedEnd() {
+            return trimEnd(line.array(), trimmedStart(), line.length());
+        }
+    }
+
+    private static class Bytes {
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        void append(byte b) {
+            ensureCapacity(length + 1);
+            bytes[length++] = b;
+        }
+
+        void append(byte[] source, int from, int to) {
+            ensureCapacity(length + to - from);
+            System.arraycopy(source, from, bytes, length, to - from);
+            length += to - from;
+        }
+
+        void deleteHead(int count) {
+            System.arraycopy(bytes, count, bytes, 0, length - count);
+            length -= count;
+        }
+
+        boolean isEmpty() {
+            return length == 0;
+        }
+
+        int length() {
+            return length;
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+
+        void clear() {
+            length = 0;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        byte[] toTrimmedArray() {
+            int start = trimStart(bytes, 0, length);
+            return Arrays.copyOfRange(bytes, start, trimEnd(bytes, start, length));
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+    }
+
+    // как String.trim: отбрасываются байты не больше пробела, они не встречаются внутри многобайтовых символов
+    private static int trimStart(byte[] bytes, int from, int to) {
+        while (from < to && (bytes[from] & 0xFF) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] bytes, int from, int to) {
+        while (to > from && (bytes[to - 1] & 0xFF) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+}
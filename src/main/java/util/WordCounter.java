@@ -0,0 +1,293 @@
+package util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+
+// Счётчик слов с поиском по окну char[]: строка создаётся только для нового слова.
+// Хеш совпадает с String.hashCode() для того же слова.
+public class WordCounter {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private String[] keys;
+    private int[] hashes;
+    private long[] counts;
+    private int[] tags;
+    private int size;
+    private int mask;
+
+    public WordCounter() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    // увеличивает счётчик слова buffer[0, length) и возвращает его слот
+    public int increment(char[] buffer, int length, int hash) {
+        int slot = indexFor(hash);
+
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && matches(keys[slot], buffer, length)) {
+                counts[slot]++;
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = new String(buffer, 0, length);
+        hashes[slot] = hash;
+        counts[slot] = 1;
+
+        if (++size * 2 > keys.length) {
+            rehash();
+            return find(buffer, length, hash);
+        }
+
+        return slot;
+    }
+
+    public void add(String word, long count) {
+        add(word, word.hashCode(), count);
+    }
+
+    // слияние таблиц: хеши берутся из other, строки переиспользуются
+    public void merge(WordCounter other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != null) {
+                add(other.keys[i], other.hashes[i], other.counts[i]);
+            }
+        }
+    }
+
+    public int find(char[] buffer, int length, int hash) {
+        int slot = indexFor(hash);
+
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && matches(keys[slot], buffer, length)) {
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    public String key(int slot) {
+        return keys[slot];
+    }
+
+    public long count(int slot) {
+        return counts[slot];
+    }
+
+    public long countOf(String word) {
+        int hash = word.hashCode();
+        int slot = indexFor(hash);
+
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && keys[slot].equals(word)) {
+                return counts[slot];
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return 0;
+    }
+
+    public void addToCount(int slot, long delta) {
+        counts[slot] += delta;
+    }
+
+    public int tag(int slot) {
+        return tags[slot];
+    }
+
+    public void setTag(int slot, int tag) {
+        tags[slot] = tag;
+    }
+
+    public long total() {
+        long total = 0;
+
+        for (int slot = 0; slot < keys.length; slot++) {
+            total += counts[slot];
+        }
+
+        return total;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(ObjLongConsumer<String> consumer) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null) {
+                consumer.accept(keys[slot], counts[slot]);
+            }
+        }
+    }
+
+    // n самых частых слов по убыванию; частичный отбор через min-кучу слотов
+    public Map<String, Long> top(int n) {
+        int[] heap = new int[Math.min(n, size)];
+        int heapSize = 0;
+
+        for (int slot = 0; slot < keys.length && heap.length > 0; slot++) {
+            if (keys[slot] == null) {
+                continue;
+            }
+
+            if (heapSize < heap.length) {
+                heap[heapSize] = slot;
+                siftUp(heap, heapSize++);
+            } else if (counts[slot] > counts[heap[0]]) {
+                heap[0] = slot;
+                siftDown(heap, heapSize);
+            }
+        }
+
+        Map<String, Long> top = new LinkedHashMap<>(heapSize * 2);
+        int[] order = new int[heapSize];
+
+        for (int i = heapSize - 1; i >= 0; i--) {
+            order[i] = heap[0];
+            heap[0] = heap[i];
+            siftDown(heap, i);
+        }
+        for (int slot : order) {
+            top.put(keys[slot], counts[slot]);
+        }
+
+        return top;
+    }
+
+    public Map<String, Long> toMap() {
+        Map<String, Long> map = new HashMap<>(size * 2);
+        forEach(map::put);
+        return map;
+    }
+
+    private void add(String word, int hash, long count) {
+        int slot = indexFor(hash);
+
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && keys[slot].equals(word)) {
+                counts[slot] += count;
+                return;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = word;
+        hashes[slot] = hash;
+        counts[slot] = count;
+
+        if (++size * 2 > keys.length) {
+            rehash();
+        }
+    }
+
+    private void siftUp(int[] heap, int index) {
+        int slot = heap[index];
+
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+
+            if (counts[heap[parent]] <= counts[slot]) {
+                break;
+            }
+
+            heap[index] = heap[parent];
+            index = parent;
+        }
+
+        heap[index] = slot;
+    }
+
+    private void siftDown(int[] heap, int heapSize) {
+        int index = 0;
+        int slot = heap[0];
+
+        while (true) {
+            int child = 2 * index + 1;
+
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && counts[heap[child + 1]] < counts[heap[child]]) {
+                child++;
+            }
+            if (counts[slot] <= counts[heap[child]]) {
+                break;
+            }
+
+            heap[index] = heap[child];
+            index = child;
+        }
+
+        heap[index] = slot;
+    }
+
+    private static boolean matches(String key, char[] buffer, int length) {
+        if (key.length() != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != buffer[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // корзина слова по его хешу для сводок из нескольких процессов; buckets — степень двойки
+    public static int bucketOf(int hash, int buckets) {
+        int mixed = hash * 0x9E3779B9;
+        return (mixed ^ (mixed >>> 16)) & (buckets - 1);
+    }
+
+    private int indexFor(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return (mixed ^ (mixed >>> 16)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        counts = new long[capacity];
+        tags = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        long[] oldCounts = counts;
+        int[] oldTags = tags;
+
+        allocate(oldKeys.length * 2);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) {
+                continue;
+            }
+
+            int slot = indexFor(oldHashes[i]);
+
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = oldKeys[i];
+            hashes[slot] = oldHashes[i];
+            counts[slot] = oldCounts[i];
+            tags[slot] = oldTags[i];
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package util;
+
+import java.util.Arrays;
+
+// Конечный автомат по классам символов: слово — буквы и внутренние апострофы,
+// не прилегающие к цифрам и '_' (как \b[\p{L}']+\b). Символы подаются по одному,
+// слово сразу приводится к нижнему регистру и хешируется без создания подстрок.
+public class WordTokenizer {
+    public static final int OTHER = 0;
+    public static final int LETTER = 1;
+    public static final int APOSTROPHE = 2;
+    public static final int WORD_OTHER = 3; // цифры и '_' — часть слова для \b, но не буквы
+    public static final int SPACE = 4;
+    public static final int TERMINATOR = 5;
+
+    private static final byte[] ASCII_CLASSES = new byte[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            ASCII_CLASSES[c] = LETTER;
+            ASCII_CLASSES[c - 'a' + 'A'] = LETTER;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            ASCII_CLASSES[c] = WORD_OTHER;
+        }
+
+        ASCII_CLASSES['_'] = WORD_OTHER;
+        ASCII_CLASSES['\''] = APOSTROPHE;
+        ASCII_CLASSES[' '] = SPACE;
+        ASCII_CLASSES['\t'] = SPACE;
+        ASCII_CLASSES['\n'] = SPACE;
+        ASCII_CLASSES['\u000B'] = SPACE;
+        ASCII_CLASSES['\f'] = SPACE;
+        ASCII_CLASSES['\r'] = SPACE;
+        ASCII_CLASSES['.'] = TERMINATOR;
+        ASCII_CLASSES['!'] = TERMINATOR;
+        ASCII_CLASSES['?'] = TERMINATOR;
+    }
+
+    private char[] buffer = new char[32];
+    private int length;
+    private int hash;
+    private int pendingApostrophes;
+    private boolean inWord;
+    private boolean tainted;
+    private int previousClass = OTHER;
+
+    // первая часть слова до апострофа, если она вида "Заглавная + строчные" (John в John's)
+    private int shape;
+    private boolean inFirstSegment;
+    private int capitalizedLength;
+    private int capitalizedHash;
+    private int capitalizedEnd;
+
+    private int wordStart;
+    private int wordEnd;
+    private int currentStart;
+
+    public static int classOf(char c) {
+        if (c < 128) {
+            return ASCII_CLASSES[c];
+        }
+        if (Character.isLetter(c)) {
+            return LETTER;
+        }
+
+        return Character.isDigit(c) ? WORD_OTHER : OTHER;
+    }
+
+    // true, если перед символом c закончилось слово; оно доступно через buffer()/length()/hash()
+    public boolean accept(char c, int charClass, int position) {
+        boolean completed = false;
+
+        if (charClass == LETTER) {
+            if (!inWord) {
+                inWord = true;
+                tainted = previousClass == WORD_OTHER;
+                currentStart = position;
+                length = 0;
+                hash = 0;
+                shape = 0;
+                inFirstSegment = true;
+            } else {
+                for (; pendingApostrophes > 0; pendingApostrophes--) {
+                    append('\'');
+                    inFirstSegment = false;
+                }
+            }
+
+            boolean upper = c < 128 ? c >= 'A' && c <= 'Z' : Character.isUpperCase(c);
+            append(c < 128 ? (upper ? (char) (c | 0x20) : c) : Character.toLowerCase(c));
+
+            if (inFirstSegment) {
+                if (shape == 0) {
+                    shape = upper ? 1 : -1;
+                } else if (shape > 0) {
+                    shape = !upper && (c < 128 || Character.isLowerCase(c)) ? 2 : -1;
+                }
+
+                capitalizedLength = length;
+                capitalizedHash = hash;
+            }
+        } else {
+            if (previousClass == LETTER) {
+                wordEnd = position;
+
+                if (inFirstSegment) {
+                    capitalizedEnd = position;
+                }
+            }
+
+            if (charClass == APOSTROPHE) {
+                if (inWord) {
+                    pendingApostrophes++;
+                }
+            } else if (inWord) {
+                if (charClass == WORD_OTHER && previousClass == LETTER) {
+                    tainted = true;
+                }
+
+                completed = !tainted;
+                wordStart = currentStart;
+                inWord = false;
+                pendingApostrophes = 0;
+            }
+        }
+
+        previousClass = charClass;
+        return completed;
+    }
+
+    // то же, что accept для каждой буквы ASCII из lowered[from, to); бит i в upper — заглавная ли lowered[from + i]
+    public void acceptLetters(char[] lowered, int from, int to, long upper, int position) {
+        if (!inWord) {
+            inWord = true;
+            tainted = previousClass == WORD_OTHER;
+            currentStart = position;
+            length = 0;
+            hash = 0;
+            shape = (upper & 1) != 0 ? 1 : -1;
+            inFirstSegment = true;
+
+            append(lowered[from++]);
+            upper >>>= 1;
+        } else {
+            for (; pendingApostrophes > 0; pendingApostrophes--) {
+                append('\'');
+                inFirstSegment = false;
+            }
+        }
+
+        int count = to - from;
+
+        if (length + count > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+        }
+
+        int h = hash;
+
+        for (int i = from; i < to; i++) {
+            char c = lowered[i];
+            buffer[length++] = c;
+            h = 31 * h + c;
+        }
+
+        hash = h;
+
+        if (inFirstSegment) {
+            if (count > 0 && shape > 0) {
+                long rest = count == Long.SIZE ? upper : upper & ((1L << count) - 1);
+                shape = rest != 0 ? -1 : 2;
+            }
+
+            capitalizedLength = length;
+            capitalizedHash = hash;
+        }
+
+        previousClass = LETTER;
+    }
+
+    public boolean finish(int position) {
+        boolean completed = accept(' ', OTHER, position);
+        previousClass = OTHER;
+        return completed;
+    }
+
+    public char[] buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int hash() {
+        return hash;
+    }
+
+    // длина части слова вида "Заглавная + строчные" до апострофа или 0
+    public int capitalizedLength() {
+        return shape == 2 ? capitalizedLength : 0;
+    }
+
+    public int capitalizedHash() {
+        return capitalizedHash;
+    }
+
+    // позиция сразу после части capitalizedLength(): в тех же единицах, что и position у accept
+    public int capitalizedEnd() {
+        return capitalizedEnd;
+    }
+
+    public int wordStart() {
+        return wordStart;
+    }
+
+    public int wordEnd() {
+        return wordEnd;
+    }
+
+    private void append(char c) {
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, length * 2);
+        }
+
+        buffer[length++] = c;
+        hash = 31 * hash + c;
+    }
+}
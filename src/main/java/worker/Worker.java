@@ -3,44 +3,94 @@ package worker;
 import broker.MessageBroker;
 import model.ResultMessage;
 import model.TaskMessage;
-import util.TextProcessor;
+import util.ChunkAnalyzer;
+import util.MappedFile;
+import util.NameAnonymizer;
+import util.SentimentLexicon;
+import util.WordCounter;
 
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 public class Worker {
+    private static final int CANDIDATES_PER_TOP_WORD = 4;
+
     private final MessageBroker broker;
+    private final int parallelism;
     private final ExecutorService pool;
 
     public Worker(MessageBroker broker, int parallelism) {
         this.broker = broker;
+        this.parallelism = parallelism;
         this.pool = Executors.newFixedThreadPool(parallelism);
     }
 
-    public void start(String placeholder, int topN) throws Exception {
+    public void start(NameAnonymizer names, int topN, SentimentLexicon lexicon) throws Exception {
+        // подписок столько же, сколько потоков; у брокеров с prefetch каждая подписка приносит свой
+        if (broker.callsHandlerOnSubscriptionThread()) {
+            for (int i = 0; i < parallelism; i++) {
+                broker.subscribeTasks(task -> process(task, names, topN, lexicon));
+            }
+            return;
+        }
+
         Consumer<TaskMessage> handler = task -> {
-            pool.submit(() -> process(task, placeholder, topN));
+            pool.submit(() -> process(task, names, topN, lexicon));
         };
         broker.subscribeTasks(handler);
     }
 
-    private void process(TaskMessage task, String placeholder, int topN) {
+    private void process(TaskMessage task, NameAnonymizer names, int topN, SentimentLexicon lexicon) {
         try {
-            long wordCount = TextProcessor.wordCount(task.textChunk);
-            Map<String,Long> topWords = TextProcessor.topCounts(task.textChunk);
+            long started = System.nanoTime();
+            byte[] utf8 = task.path != null
+                    ? MappedFile.open(Path.of(task.path)).read(task.offset, task.length)
+                    : task.utf8Chunk;
+            ChunkAnalyzer.Result analysis = utf8 != null
+                    ? ChunkAnalyzer.analyzeUtf8(utf8, names, lexicon)
+                    : ChunkAnalyzer.analyze(task.textChunk, names, lexicon);
 
-            long[] pn = TextProcessor.lexiconSentiment(task.textChunk);
-            long positive = pn[0];
-            long negative = pn[1];
+            // кандидатов в топ отправляем с запасом; (k+1)-е слово даёт порог для остальных
+            int candidates = topN * CANDIDATES_PER_TOP_WORD;
+            Map<String, Long> topWords = new HashMap<>();
+            long threshold = 0;
 
-            var anonimazied = TextProcessor.replaceNames(task.textChunk, placeholder);
-            var sorted = TextProcessor.sortSentencesByLength(task.textChunk);
+            for (Map.Entry<String, Long> entry : analysis.wordCounts.top(candidates + 1).entrySet()) {
+                if (topWords.size() < candidates) {
+                    topWords.put(entry.getKey(), entry.getValue());
+                } else {
+                    threshold = entry.getValue();
+                }
+            }
 
-            ResultMessage res = new ResultMessage(task.id, wordCount, topWords, positive, negative, anonimazied, sorted);
+            // остальные слова — суммами по корзинам хеша: агрегатору хватает их, чтобы не пересчитывать текст
+            int[] unreported = threshold > 0 ? new int[ResultMessage.UNREPORTED_BUCKETS] : null;
+
+            if (unreported != null) {
+                analysis.wordCounts.forEach((word, count) -> {
+                    if (!topWords.containsKey(word)) {
+                        unreported[WordCounter.bucketOf(word.hashCode(), unreported.length)] += (int) count;
+                    }
+                });
+            }
+
+            ResultMessage res = new ResultMessage(task.id, analysis.wordCount, topWords, threshold, unreported,
+                    analysis.positiveCount, analysis.negativeCount, analysis.anonymizedText,
+                    analysis.anonymizedUtf8, analysis.sentences.startsArray(), analysis.sentences.lengthsArray(),
+                    System.nanoTime() - started);
             broker.publishResult(res);
         } catch (Exception e) {
+            System.err.println("[Worker] Task " + task.id + " failed: " + e);
+
+            try {
+                broker.taskFailed(task.id);
+            } catch (Exception failure) {
+                failure.printStackTrace();
+            }
         }
     }
 
@@ -1,6 +1,9 @@
 package worker;
 
 import broker.MessageBroker;
+import util.NameAnonymizer;
+import util.SentimentLexicon;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,9 +18,9 @@ public class WorkerManager {
         }
     }
 
-    public void startAll(String placeholder, int topN) throws Exception {
+    public void startAll(NameAnonymizer names, int topN, SentimentLexicon lexicon) throws Exception {
         for (Worker worker : workers) {
-            worker.start(placeholder, topN);
+            worker.start(names, topN, lexicon);
         }
         System.out.println("[WorkerManager] Started " + workers.size() + " workers");
     }
@@ -8,7 +8,7 @@ import config.AppConfig.BrokerType;
 public class BenchmarkRunner {
     public static void main(String[] args) throws Exception {
         List<String> sizes = List.of("2MB", "50MB", "100MB");
-        List<BrokerType> brokers = List.of(BrokerType.RABBITMQ, BrokerType.INMEMORY);
+        List<BrokerType> brokers = List.of(BrokerType.RABBITMQ, BrokerType.KAFKA, BrokerType.JMS, BrokerType.MAPPEDQUEUE, BrokerType.NIO, BrokerType.INMEMORY, BrokerType.RINGBUFFER);
         List<Integer> parallels = List.of(1, 2, 4, 8, 12);
         List<String> chunkByOptions = List.of("BYTES", "PARAGRAPHS", "SENTENCES");
         Map<String, List<Integer>> chunkSizeOptionsMap = Map.of(
@@ -0,0 +1,315 @@
+package broker;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Стенд вместо сервера RabbitMQ в памяти процесса: Connection и Channel — прокси над интерфейсами клиента.
+// Подтверждения публикаций приходят асинхронно в общем потоке соединения, доставки — в потоке своего канала,
+// и неподтверждённых доставок на канале не больше basicQos.
+// Каждая nackEvery-я публикация (но не повтор) получает nack и в очередь не попадает. Стенд считает
+// одновременное использование канала из разных потоков и ack/nack с номерами, которых канал не выдавал.
+final class FakeRabbit {
+    final AtomicInteger channelsOpened = new AtomicInteger();
+    final AtomicInteger nacks = new AtomicInteger();
+    final AtomicInteger concurrentUse = new AtomicInteger();
+    final AtomicInteger unknownTags = new AtomicInteger();
+    final List<FakeChannel> channels = new CopyOnWriteArrayList<>();
+    volatile int nackEvery;
+
+    private final Map<String, FakeQueue> queues = new ConcurrentHashMap<>();
+    private final Set<byte[]> nacked = Collections.newSetFromMap(new IdentityHashMap<>()); // под собой
+    private final AtomicInteger published = new AtomicInteger();
+    private final ExecutorService confirms = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "fake-confirms");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    Connection connection() {
+        return proxy(Connection.class, (proxy, method, args) -> switch (method.getName()) {
+            case "createChannel" -> {
+                FakeChannel channel = new FakeChannel();
+                channels.add(channel);
+                channelsOpened.incrementAndGet();
+                yield proxy(Channel.class, channel);
+            }
+            case "isOpen" -> true;
+            default -> objectMethod(proxy, method, args);
+        });
+    }
+
+    // доставки, ещё не подтверждённые подписчиками, по всем каналам
+    int unacked() {
+        int unacked = 0;
+
+        for (FakeChannel channel : channels) {
+            unacked += channel.unacked();
+        }
+        return unacked;
+    }
+
+    // сообщения, принятые в очередь, — и разобранные подписчиками, и ждущие их
+    List<byte[]> published(String queue) {
+        return queue(queue).all();
+    }
+
+    private FakeQueue queue(String name) {
+        return queues.computeIfAbsent(name, key -> new FakeQueue());
+    }
+
+    private boolean nack(byte[] body) {
+        synchronized (nacked) {
+            if (nackEvery <= 0 || nacked.contains(body) || published.incrementAndGet() % nackEvery != 0) {
+                return false;
+            }
+            nacked.add(body);
+            return true;
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(FakeRabbit.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "toString" -> "fake " + method.getDeclaringClass().getSimpleName();
+            default -> null;
+        };
+    }
+
+    private record Subscription(FakeChannel channel, String tag, DeliverCallback callback) {
+    }
+
+    private static final class FakeQueue {
+        private final ArrayDeque<byte[]> ready = new ArrayDeque<>();
+        private final List<byte[]> all = new ArrayList<>();
+        private final List<Subscription> subscriptions = new ArrayList<>();
+        private int next;
+
+        synchronized void add(byte[] body) {
+            all.add(body);
+            offer(body, false);
+        }
+
+        // в первого по кругу подписчика, у которого есть место в окне; иначе сообщение ждёт в очереди
+        synchronized void offer(byte[] body, boolean redeliver) {
+            Subscription subscription = free();
+
+            if (subscription != null) {
+                subscription.channel().deliver(this, subscription, body, redeliver);
+            } else if (redeliver) {
+                ready.addFirst(body);
+            } else {
+                ready.addLast(body);
+            }
+        }
+
+        synchronized void subscribe(Subscription subscription) {
+            subscriptions.add(subscription);
+            drain();
+        }
+
+        synchronized void drain() {
+            for (Subscription subscription; !ready.isEmpty() && (subscription = free()) != null; ) {
+                subscription.channel().deliver(this, subscription, ready.pollFirst(), false);
+            }
+        }
+
+        private Subscription free() {
+            for (int i = 0; i < subscriptions.size(); i++) {
+                Subscription subscription = subscriptions.get(next++ % subscriptions.size());
+
+                if (subscription.channel().hasCapacity()) {
+                    return subscription;
+                }
+            }
+            return null;
+        }
+
+        synchronized List<byte[]> all() {
+            return new ArrayList<>(all);
+        }
+    }
+
+    final class FakeChannel implements InvocationHandler {
+        final Set<Thread> publishers = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean busy = new AtomicBoolean();
+        private final ExecutorService deliveries = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fake-deliveries");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final NavigableMap<Long, Object[]> unacked = new TreeMap<>(); // номер -> очередь и тело, под собой
+        private long nextDeliveryTag = 1;
+        private long nextPublishSeqNo = 1;
+        private volatile int prefetch; // 0 — без ограничения
+        private int unconfirmed; // под this
+        private ConfirmCallback ack;
+        private ConfirmCallback nack;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            return switch (method.getName()) {
+                case "confirmSelect", "queueDeclare", "close" -> null;
+                case "basicQos" -> {
+                    prefetch = (int) args[0];
+                    yield null;
+                }
+                case "isOpen" -> true;
+                case "addConfirmListener" -> {
+                    ack = (ConfirmCallback) args[0];
+                    nack = (ConfirmCallback) args[1];
+                    yield null;
+                }
+                case "getNextPublishSeqNo" -> exclusive(() -> nextPublishSeqNo);
+                case "basicPublish" -> exclusive(() -> publish((String) args[1], (byte[]) args[3]));
+                case "basicConsume" -> {
+                    String tag = "consumer-" + System.identityHashCode(args[2]);
+                    queue((String) args[0]).subscribe(new Subscription(this, tag, (DeliverCallback) args[2]));
+                    yield tag;
+                }
+                case "basicAck" -> exclusive(() -> settle((long) args[0], (boolean) args[1], false));
+                case "basicNack" -> exclusive(() -> settle((long) args[0], (boolean) args[1], (boolean) args[2]));
+                case "waitForConfirms" -> waitForConfirms();
+                default -> objectMethod(proxy, method, args);
+            };
+        }
+
+        private interface Call {
+            Object call() throws Exception;
+        }
+
+        // канал не потокобезопасен: одновременный вызов из двух потоков — ошибка клиента
+        private Object exclusive(Call call) throws Exception {
+            if (!busy.compareAndSet(false, true)) {
+                concurrentUse.incrementAndGet();
+                return call.call();
+            }
+
+            try {
+                return call.call();
+            } finally {
+                busy.set(false);
+            }
+        }
+
+        private Object publish(String queue, byte[] body) {
+            long seqNo = nextPublishSeqNo++;
+            boolean rejected = nack(body);
+
+            publishers.add(Thread.currentThread());
+            synchronized (this) {
+                unconfirmed++;
+            }
+            if (!rejected) {
+                queue(queue).add(body);
+            } else {
+                nacks.incrementAndGet();
+            }
+
+            confirms.execute(() -> {
+                try {
+                    (rejected ? nack : ack).handle(seqNo, false);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    synchronized (this) {
+                        unconfirmed--;
+                        notifyAll();
+                    }
+                }
+            });
+            return null;
+        }
+
+        private synchronized boolean waitForConfirms() throws InterruptedException {
+            while (unconfirmed > 0) {
+                wait();
+            }
+            return true;
+        }
+
+        boolean hasCapacity() {
+            synchronized (unacked) {
+                return prefetch <= 0 || unacked.size() < prefetch;
+            }
+        }
+
+        int unacked() {
+            synchronized (unacked) {
+                return unacked.size();
+            }
+        }
+
+        void deliver(FakeQueue queue, Subscription subscription, byte[] body, boolean redeliver) {
+            long tag;
+
+            synchronized (unacked) {
+                tag = nextDeliveryTag++;
+                unacked.put(tag, new Object[]{queue, body});
+            }
+
+            deliveries.execute(() -> {
+                try {
+                    subscription.callback().handle(subscription.tag(), new Delivery(new Envelope(tag, redeliver, "", ""), null, body));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+
+        // у RabbitMQ номер, которого канал не выдавал или который уже закрыт, закрывает канал
+        private Object settle(long tag, boolean multiple, boolean requeue) {
+            List<Object[]> settled = new ArrayList<>();
+
+            synchronized (unacked) {
+                if (!unacked.containsKey(tag)) {
+                    unknownTags.incrementAndGet();
+                    return null;
+                }
+
+                Map<Long, Object[]> range = multiple ? unacked.headMap(tag, true) : unacked.subMap(tag, true, tag, true);
+                settled.addAll(range.values());
+                range.clear();
+            }
+
+            for (Object[] delivery : settled) {
+                FakeQueue queue = (FakeQueue) delivery[0];
+
+                if (requeue) {
+                    queue.offer((byte[]) delivery[1], true);
+                } else {
+                    queue.drain();
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package broker;
+
+import codec.MessageCodec;
+import config.AppConfig.CodecType;
+import model.TaskMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Координатор в процессе теста, воркеры — отдельные JVM (NioTestWorker). Сначала все задачи
+// забирает воркер, который не отвечает, потом подключается рабочий — и должен получить их все.
+class NioCoordinatorTest {
+    private static final int TASKS = 4;
+    private static final long LONG_TIMEOUT_MS = 60_000;
+    private static final long SHORT_TIMEOUT_MS = 1_000;
+
+    private final List<Process> workers = new ArrayList<>();
+    private final BlockingQueue<Integer> results = new LinkedBlockingQueue<>();
+    private NioCoordinator coordinator;
+
+    @AfterEach
+    void stop() {
+        if (coordinator != null) {
+            coordinator.close();
+        }
+        for (Process worker : workers) {
+            worker.destroyForcibly();
+        }
+    }
+
+    @Test
+    @Timeout(60)
+    void expiredLeasesGoToAnotherWorker() throws Exception {
+        start(LONG_TIMEOUT_MS, SHORT_TIMEOUT_MS);
+        Process holder = worker("hold");
+        submitAll();
+        awaitLeased(holder);
+
+        long started = System.currentTimeMillis();
+        worker("work");
+
+        assertEquals(allTasks(), awaitResults(TASKS));
+        assertTrue(System.currentTimeMillis() - started < LONG_TIMEOUT_MS / 2, "tasks must be re-leased by lease expiry");
+        assertTrue(holder.isAlive(), "a worker that keeps sending heartbeats must stay connected");
+    }
+
+    @Test
+    @Timeout(60)
+    void silentWorkerLosesItsLeases() throws Exception {
+        start(SHORT_TIMEOUT_MS, LONG_TIMEOUT_MS);
+        Process mute = worker("mute");
+        submitAll();
+        awaitLeased(mute);
+
+        long started = System.currentTimeMillis();
+        worker("work");
+
+        assertEquals(allTasks(), awaitResults(TASKS));
+        assertTrue(System.currentTimeMillis() - started < LONG_TIMEOUT_MS / 2, "tasks must be re-leased by heartbeat timeout");
+        // координатор закрыл соединение молчащего воркера
+        assertTrue(mute.waitFor(10, TimeUnit.SECONDS), "the silent worker must be disconnected");
+    }
+
+    // отклонённая задача отдаётся снова сразу, а после MAX_LEASES попыток пропускается
+    @Test
+    @Timeout(60)
+    void failedTaskIsLeasedAgainUpToLimit() throws Exception {
+        start(LONG_TIMEOUT_MS, LONG_TIMEOUT_MS);
+        Process worker = worker("fail");
+        BufferedReader out = new BufferedReader(new InputStreamReader(worker.getInputStream()));
+        long started = System.currentTimeMillis();
+        submitAll();
+
+        Set<Integer> expected = allTasks();
+        expected.remove(0);
+        assertEquals(expected, awaitResults(TASKS - 1));
+        assertEquals(NioProtocol.MAX_LEASES, leases(out, 0, NioProtocol.MAX_LEASES));
+        assertTrue(System.currentTimeMillis() - started < LONG_TIMEOUT_MS / 2, "a failed task must be leased again without waiting for lease expiry");
+
+        // лишняя аренда пришла бы сразу за последним отказом; BYE завершает воркер, и его вывод дочитывается
+        TimeUnit.MILLISECONDS.sleep(SHORT_TIMEOUT_MS);
+        coordinator.close();
+        assertTrue(worker.waitFor(10, TimeUnit.SECONDS), "the worker must exit after BYE");
+        assertEquals(0, leases(out, 0, Integer.MAX_VALUE), "the failed task must not be leased more than MAX_LEASES times");
+    }
+
+    private void start(long heartbeatTimeoutMs, long leaseTimeoutMs) throws IOException {
+        coordinator = new NioCoordinator(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), MessageCodec.of(CodecType.BINARY),
+                heartbeatTimeoutMs, leaseTimeoutMs);
+        coordinator.setResultHandler(result -> results.add(result.taskId));
+    }
+
+    private void submitAll() throws IOException {
+        for (int id = 0; id < TASKS; id++) {
+            coordinator.submit(new TaskMessage(id, "task " + id));
+        }
+    }
+
+    private Process worker(String mode) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process worker = new ProcessBuilder(java, "--add-modules", "jdk.incubator.vector", "-cp", System.getProperty("java.class.path"),
+                NioTestWorker.class.getName(), mode, String.valueOf(coordinator.port()), String.valueOf(TASKS))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        workers.add(worker);
+        return worker;
+    }
+
+    // воркер печатает строку на каждую задачу, которую получил
+    private static void awaitLeased(Process worker) throws IOException {
+        BufferedReader out = new BufferedReader(new InputStreamReader(worker.getInputStream()));
+        int leased = 0;
+
+        while (leased < TASKS) {
+            String line = out.readLine();
+
+            if (line == null) {
+                throw new IOException("Worker exited before leasing all tasks");
+            }
+            if (line.startsWith("leased ")) {
+                leased++;
+            }
+        }
+    }
+
+    // сколько раз воркер получил задачу: читает его вывод, пока не насчитает limit или вывод не кончится
+    private static int leases(BufferedReader out, int taskId, int limit) throws IOException {
+        int leases = 0;
+
+        for (String line; leases < limit && (line = out.readLine()) != null; ) {
+            if (line.equals("leased " + taskId)) {
+                leases++;
+            }
+        }
+        return leases;
+    }
+
+    // повторный результат той же задачи координатор отбрасывает, поэтому сверяются множества
+    private Set<Integer> awaitResults(int count) throws InterruptedException {
+        Set<Integer> received = new TreeSet<>();
+        List<Integer> all = new ArrayList<>();
+
+        while (received.size() < count) {
+            Integer taskId = results.poll(LONG_TIMEOUT_MS / 2, TimeUnit.MILLISECONDS);
+
+            if (taskId == null) {
+                break;
+            }
+            received.add(taskId);
+            all.add(taskId);
+        }
+
+        assertEquals(received.size(), all.size(), "each task must be reported once");
+        return received;
+    }
+
+    private static Set<Integer> allTasks() {
+        Set<Integer> tasks = new TreeSet<>();
+
+        for (int id = 0; id < TASKS; id++) {
+            tasks.add(id);
+        }
+        return tasks;
+    }
+}
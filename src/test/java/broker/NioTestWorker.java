@@ -0,0 +1,80 @@
+package broker;
+
+import codec.MessageCodec;
+import config.AppConfig.CodecType;
+import model.ResultMessage;
+import model.TaskMessage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+// Воркер для NioCoordinatorTest в отдельной JVM. Аргументы: режим, порт координатора, число задач;
+// печатает «leased <id>» на каждую полученную задачу.
+// work — отвечает на задачи; fail — как work, но задачу 0 всякий раз отклоняет (FAILED);
+// hold — берёт задачи и не отвечает, но шлёт HEARTBEAT;
+// mute — голый сокет: выдаёт кредиты и больше не шлёт ничего.
+public class NioTestWorker {
+    public static void main(String[] args) throws Exception {
+        String mode = args[0];
+        int port = Integer.parseInt(args[1]);
+        int tasks = Integer.parseInt(args[2]);
+        MessageCodec codec = MessageCodec.of(CodecType.BINARY);
+
+        if (mode.equals("mute")) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(5);
+                out.writeByte(NioProtocol.CREDIT);
+                out.writeInt(tasks);
+                out.flush();
+
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+
+                while (true) {
+                    byte[] body = new byte[NioProtocol.bodyLength(in.readInt())];
+                    byte type = in.readByte();
+                    in.readFully(body);
+
+                    if (type == NioProtocol.TASK) {
+                        leased(codec.decodeTask(body));
+                    }
+                }
+            } catch (EOFException e) {
+                // координатор закрыл соединение
+                return;
+            }
+        }
+
+        // по подписке с одним кредитом на задачу: hold держит поток подписки на каждой
+        NioWorkerClient client = new NioWorkerClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), codec, 1);
+
+        for (int i = 0; i < tasks; i++) {
+            client.subscribe(task -> {
+                leased(task);
+
+                try {
+                    if (mode.equals("hold")) {
+                        Thread.sleep(Long.MAX_VALUE);
+                    }
+                    if (mode.equals("fail") && task.id == 0) {
+                        client.sendFailure(task.id);
+                        return;
+                    }
+                    client.sendResult(codec.encodeResult(new ResultMessage(task.id, 1, null, 0, null, 0, 0, task.textChunk, null, null, null, 0)));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        client.awaitClosed();
+    }
+
+    private static void leased(TaskMessage task) {
+        System.out.println("leased " + task.id);
+        System.out.flush();
+    }
+}
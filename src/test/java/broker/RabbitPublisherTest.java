@@ -0,0 +1,198 @@
+package broker;
+
+import codec.JsonCodec;
+import model.ResultMessage;
+import model.TaskMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// RabbitPublisher и RabbitMqBrokerMultipleConsumers на стенде FakeRabbit вместо сервера RabbitMQ.
+class RabbitPublisherTest {
+    private static final String QUEUE = "queue";
+
+    @Test
+    @Timeout(30)
+    void republishesNackedMessages() throws Exception {
+        FakeRabbit rabbit = new FakeRabbit();
+        rabbit.nackEvery = 3;
+        RabbitPublisher publisher = new RabbitPublisher(rabbit.connection(), 8);
+        AtomicInteger confirmed = new AtomicInteger();
+        int messages = 300;
+
+        for (int i = 0; i < messages; i++) {
+            publisher.publish(QUEUE, body(i), true, confirmed::incrementAndGet);
+        }
+        publisher.flush();
+        publisher.close();
+
+        assertTrue(rabbit.nacks.get() > 0, "the stand-in must have nacked some messages");
+        assertEquals(bodies(0, messages), received(rabbit));
+        assertEquals(messages, rabbit.published(QUEUE).size(), "each message must be accepted once");
+        assertEquals(messages, confirmed.get(), "each confirm action must run once");
+    }
+
+    @Test
+    @Timeout(30)
+    void keepsOneChannelPerPublishingThread() throws Exception {
+        FakeRabbit rabbit = new FakeRabbit();
+        RabbitPublisher publisher = new RabbitPublisher(rabbit.connection(), 8);
+        int threads = 4;
+        int perThread = 250;
+        List<Thread> senders = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int from = t * perThread;
+            Thread sender = new Thread(() -> {
+                try {
+                    for (int i = from; i < from + perThread; i++) {
+                        publisher.publish(QUEUE, body(i), true);
+                    }
+                    publisher.flush();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            senders.add(sender);
+            sender.start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        publisher.close();
+
+        assertEquals(0, rabbit.concurrentUse.get(), "a channel must not be used by two threads at once");
+        assertEquals(threads, rabbit.channelsOpened.get(), "one channel per thread, opened once");
+        for (FakeRabbit.FakeChannel channel : rabbit.channels) {
+            assertEquals(1, channel.publishers.size(), "each channel must be used by its own thread only");
+        }
+        assertEquals(bodies(0, threads * perThread), received(rabbit));
+    }
+
+    // пачка задач держит кредиты: без её отправки перед ожиданием кредитов продюсер ждал бы вечно
+    @Test
+    @Timeout(30)
+    void flushesTaskBatchBeforeWaitingForCredits() throws Exception {
+        FakeRabbit rabbit = new FakeRabbit();
+        rabbit.nackEvery = 5;
+        TaskMessage sample = task(0);
+        RabbitMqBrokerMultipleConsumers broker = new RabbitMqBrokerMultipleConsumers(rabbit.connection(), 3 * sample.sizeBytes(), new JsonCodec(), 4);
+        Set<Integer> results = ConcurrentHashMap.newKeySet();
+        int tasks = 40;
+
+        try {
+            broker.subscribeResults(result -> results.add(result.taskId));
+            broker.subscribeTasks(task -> {
+                try {
+                    broker.publishResult(new ResultMessage(task.id, 1, Map.of(), 0, null, 0, 0, task.textChunk, null, null, null, 0));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            for (int id = 0; id < tasks; id++) {
+                broker.publishTask(task(id));
+            }
+            broker.flush();
+
+            long deadline = System.currentTimeMillis() + 10_000;
+
+            while (results.size() < tasks && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertEquals(tasks, results.size());
+            assertEquals(0, rabbit.unknownTags.get(), "acks must refer to open deliveries");
+            assertEquals(0, rabbit.concurrentUse.get());
+        } finally {
+            broker.close();
+        }
+    }
+
+    // задача, обработка которой упала, возвращается в очередь и не мешает подтверждать следующие
+    @Test
+    @Timeout(30)
+    void requeuesFailedTaskAndKeepsAckingOthers() throws Exception {
+        FakeRabbit rabbit = new FakeRabbit();
+        RabbitMqBrokerMultipleConsumers broker = new RabbitMqBrokerMultipleConsumers(rabbit.connection(), Long.MAX_VALUE, new JsonCodec(), 4);
+        Set<Integer> results = ConcurrentHashMap.newKeySet();
+        Map<Integer, Integer> attempts = new ConcurrentHashMap<>();
+        int failing = 2;
+        int tasks = 40;
+
+        try {
+            broker.subscribeResults(result -> results.add(result.taskId));
+            // как Worker: исключение обработки превращается в taskFailed
+            broker.subscribeTasks(task -> {
+                int attempt = attempts.merge(task.id, 1, Integer::sum);
+
+                try {
+                    if (task.id == failing && attempt == 1) {
+                        throw new IllegalStateException("broken chunk");
+                    }
+                    broker.publishResult(new ResultMessage(task.id, 1, Map.of(), 0, null, 0, 0, task.textChunk, null, null, null, 0));
+                } catch (Exception e) {
+                    try {
+                        broker.taskFailed(task.id);
+                    } catch (Exception failure) {
+                        throw new RuntimeException(failure);
+                    }
+                }
+            });
+
+            for (int id = 0; id < tasks; id++) {
+                broker.publishTask(task(id));
+            }
+            broker.flush();
+
+            long deadline = System.currentTimeMillis() + 10_000;
+
+            while ((results.size() < tasks || rabbit.unacked() > 0) && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertEquals(tasks, results.size());
+            assertEquals(2, (int) attempts.get(failing), "the failed task must be delivered again");
+            assertEquals(0, rabbit.unacked(), "every task delivery must be settled");
+            assertEquals(0, rabbit.unknownTags.get());
+        } finally {
+            broker.close();
+        }
+    }
+
+    private static byte[] body(int i) {
+        return ("message " + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static TaskMessage task(int id) {
+        return new TaskMessage(id, "task text ".repeat(10) + id);
+    }
+
+    private static Set<String> bodies(int from, int to) {
+        Set<String> bodies = new HashSet<>();
+
+        for (int i = from; i < to; i++) {
+            bodies.add(new String(body(i), StandardCharsets.UTF_8));
+        }
+        return bodies;
+    }
+
+    private static Set<String> received(FakeRabbit rabbit) {
+        Set<String> received = new HashSet<>();
+
+        for (byte[] body : rabbit.published(QUEUE)) {
+            received.add(new String(body, StandardCharsets.UTF_8));
+        }
+        return received;
+    }
+}
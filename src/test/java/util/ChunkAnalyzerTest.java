@@ -0,0 +1,107 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Векторный путь ChunkAnalyzer сверяется со скалярным, а разбор UTF-8 — с разбором строки на случайных
+// текстах: имена, тональные слова и отрицания, апострофы, цифры, не-ASCII, знаки конца предложения и слова
+// длиннее блока, с разным сдвигом относительно границ блоков.
+class ChunkAnalyzerTest {
+    private static final int TEXTS = 300;
+    private static final String[] PIECES = {
+            "John", "Mary", "Alice", "bob", "McDonald", "O'Neil's", "Paris", "Monday",
+            "good", "great", "bad", "terrible", "not", "cannot", "very", "good.",
+            "the", "The", "and", "it", "IT", "MiXeD", "ALLCAPS", "rock'n'roll", "''quoted''", "'tis",
+            "x1y", "abc_def", "42", "3.14", "e-mail", "co-operate",
+            "Ёжик", "Мария", "пошли", "домой", "naïve", "café", "Zoë", "日本",
+            ".", "!", "?", "...", ",", ";", "\"", "(", ")", "—", "\n", "\n\n", "\t"
+    };
+
+    private final NameAnonymizer names = NameAnonymizer.withDefaultNames("<NAME>");
+    private final SentimentLexicon lexicon = SentimentLexicon.defaultLexicon();
+
+    @Test
+    void vectorPathMatchesScalarPath() {
+        for (String text : texts()) {
+            StringBuilder scalarText = new StringBuilder();
+            StringBuilder vectorText = new StringBuilder();
+            ChunkAnalyzer.Result scalar = ChunkAnalyzer.analyze(text, names, lexicon, scalarText, false);
+            ChunkAnalyzer.Result vector = ChunkAnalyzer.analyze(text, names, lexicon, vectorText, true);
+
+            assertSame(scalar, scalarText.toString(), vector, vectorText.toString(), text);
+            assertEquals(starts(scalar.sentences), starts(vector.sentences), text);
+        }
+    }
+
+    // смещения предложений в UTF-8 байтовые, поэтому сверяются только длины
+    @Test
+    void utf8PathMatchesStringPath() {
+        for (String text : texts()) {
+            StringBuilder chars = new StringBuilder();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ChunkAnalyzer.Result string = ChunkAnalyzer.analyze(text, names, lexicon, chars, false);
+            ChunkAnalyzer.Result utf8 = ChunkAnalyzer.analyzeUtf8(text.getBytes(StandardCharsets.UTF_8), names, lexicon, bytes);
+
+            assertSame(string, chars.toString(), utf8, bytes.toString(StandardCharsets.UTF_8), text);
+        }
+    }
+
+    private static void assertSame(ChunkAnalyzer.Result expected, String expectedText, ChunkAnalyzer.Result actual, String actualText, String text) {
+        assertEquals(expected.wordCount, actual.wordCount, text);
+        assertEquals(expected.positiveCount, actual.positiveCount, text);
+        assertEquals(expected.negativeCount, actual.negativeCount, text);
+        assertEquals(expected.wordCounts.toMap(), actual.wordCounts.toMap(), text);
+        assertEquals(expectedText, actualText, text);
+        assertEquals(lengths(expected.sentences), lengths(actual.sentences), text);
+    }
+
+    private static List<String> texts() {
+        Random random = new Random(42);
+        List<String> texts = new ArrayList<>();
+
+        texts.add("");
+        texts.add(" ");
+        texts.add("a".repeat(3 * AsciiVectorScanner.BLOCK + 1));
+
+        for (int i = 0; i < TEXTS; i++) {
+            StringBuilder text = new StringBuilder(" ".repeat(random.nextInt(AsciiVectorScanner.BLOCK)));
+            int length = random.nextInt(8 * AsciiVectorScanner.BLOCK);
+
+            while (text.length() < length) {
+                text.append(random.nextInt(20) == 0 ? "Long".repeat(1 + random.nextInt(40)) : PIECES[random.nextInt(PIECES.length)]);
+                text.append(random.nextInt(4) == 0 ? "" : " ");
+            }
+
+            texts.add(text.toString());
+        }
+
+        return texts;
+    }
+
+    private static List<Integer> lengths(SentenceIndex sentences) {
+        List<Integer> lengths = new ArrayList<>();
+
+        for (int i = 0; i < sentences.size(); i++) {
+            lengths.add(sentences.length(i));
+        }
+
+        return lengths;
+    }
+
+    private static List<Integer> starts(SentenceIndex sentences) {
+        List<Integer> starts = new ArrayList<>();
+
+        for (int i = 0; i < sentences.size(); i++) {
+            starts.add(sentences.start(i));
+        }
+
+        return starts;
+    }
+}